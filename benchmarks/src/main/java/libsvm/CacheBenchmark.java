@@ -0,0 +1,68 @@
+package libsvm;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+//
+// Kernel cache column requests, as get_Q makes them: a hit hands the
+// column out, a miss is filled (with a constant here, so the kernel
+// does not dominate) and put back. Requests are skewed towards low
+// column indices over working_set times the columns that fit.
+//
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+	@Param({"1000", "10000"})
+	public int l;
+
+	@Param({"0", "1"})	// svm_parameter.HEAP, OFF_HEAP
+	public int cache_type;
+
+	@Param({"0", "1", "2"})	// svm_parameter.LRU, SLRU, LFU
+	public int cache_policy;
+
+	@Param({"0.5", "2"})
+	public double working_set;
+
+	private static final int CAPACITY = 256;	// columns that fit
+	private static final int NR_REQUEST = 1<<14;
+	private Cache cache;
+	private int[] request;
+	private int next;
+
+	@Setup
+	public void setup()
+	{
+		svm_parameter param = Synthetic.param("RBF",1);
+		param.cache_type = cache_type;
+		param.cache_policy = cache_policy;
+		cache = Cache.create(l,4L*l*CAPACITY,param);
+		Random rand = new Random(1);
+		int n = Math.min(l,(int)(working_set*CAPACITY));
+		request = new int[NR_REQUEST];
+		for(int k=0;k<NR_REQUEST;k++)
+		{
+			double u = rand.nextDouble();
+			request[k] = (int)(n*u*u);
+		}
+	}
+
+	@Benchmark
+	public float[] get_data()
+	{
+		int index = request[next];
+		next = (next+1)&(NR_REQUEST-1);
+		float[][] data = new float[1][];
+		int start = cache.get_data(index,data,l);
+		if(start < l)
+		{
+			Arrays.fill(data[0],start,l,1f);
+			cache.put_data(index,data[0],start,l);
+		}
+		return data[0];
+	}
+}
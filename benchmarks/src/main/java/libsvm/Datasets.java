@@ -0,0 +1,164 @@
+package libsvm;
+import java.io.*;
+import java.util.*;
+
+//
+// Synthetic data sets in LIBSVM format for the end-to-end benchmarks
+//
+// Dense rows have all dim features, uniform in [-1,1); sparse rows have
+// nnz of them, uniform in (0,1] so that svm-scale -l 0 keeps them sparse.
+// Labels come from random linear functions w_c: a classification row
+// belongs to the class of the largest w_c.x, rows within a small margin
+// of a boundary being drawn again so that noise 0 is separable, and then
+// moves to another class with probability noise; a regression row
+// (nr_class 0) has y = w_0.x scaled to unit variance, plus Gaussian noise
+// of standard deviation noise. The functions depend only on the layout,
+// dim and nr_class, and the rows on the spec and the seed, so every JVM
+// writes the same file.
+//
+final class Datasets {
+	static final class Spec {
+		final boolean sparse;
+		final int dim;
+		final int nnz;		// nonzero features per row
+		final int nr_class;	// 0 for regression
+		final double noise;
+
+		Spec(boolean sparse, int dim, int nnz, int nr_class, double noise)
+		{
+			this.sparse = sparse;
+			this.dim = dim;
+			this.nnz = sparse ? Math.min(nnz,dim) : dim;
+			this.nr_class = nr_class;
+			this.noise = noise;
+		}
+
+		String name()
+		{
+			return (sparse ? "sparse" : "dense")+"-d"+dim+(sparse ? "-nnz"+nnz : "")+
+				(nr_class == 0 ? "-reg" : "-c"+nr_class)+"-noise"+noise;
+		}
+	}
+
+	// the file of l rows for spec and seed in dir, written unless there
+	static File file(File dir, Spec spec, int l, long seed) throws IOException
+	{
+		File f = new File(dir,spec.name()+"-l"+l+"-s"+seed+".txt");
+		if(f.exists())
+			return f;
+		File tmp = new File(dir,f.getName()+".tmp");
+		Writer out = new BufferedWriter(new FileWriter(tmp),1<<16);
+		try {
+			write(out,spec,l,seed);
+		} finally {
+			out.close();
+		}
+		if(!tmp.renameTo(f))
+			throw new IOException("can't rename "+tmp+" to "+f);
+		return f;
+	}
+
+	static void write(Writer out, Spec spec, int l, long seed) throws IOException
+	{
+		int nr_w = Math.max(spec.nr_class,1);
+		double[][] w = new double[nr_w][spec.dim+1];
+		Random rand = new Random(31L*(31*spec.dim+spec.nr_class)+(spec.sparse ? 1 : 0));
+		for(int c=0;c<nr_w;c++)
+			for(int j=1;j<=spec.dim;j++)
+				w[c][j] = rand.nextGaussian();
+		// standard deviation of w_c.x, E[x^2] being 1/3 for both layouts
+		double sd = Math.sqrt(spec.nnz/3.0);
+		double margin = 0.05*sd;
+
+		rand = new Random(seed);
+		int[] feature = new int[spec.dim];
+		for(int j=0;j<spec.dim;j++)
+			feature[j] = j+1;
+		double[] value = new double[spec.dim];
+		double[] score = new double[nr_w];
+		StringBuilder sb = new StringBuilder();
+		for(int i=0;i<l;i++)
+		{
+			int label;
+			for(;;)
+			{
+				if(spec.sparse)
+				{
+					// first nnz of a partial shuffle, in increasing order
+					for(int k=0;k<spec.nnz;k++)
+					{
+						int j = k+rand.nextInt(spec.dim-k);
+						do {int tmp=feature[k]; feature[k]=feature[j]; feature[j]=tmp;} while(false);
+					}
+					Arrays.sort(feature,0,spec.nnz);
+					for(int k=0;k<spec.nnz;k++)
+						value[k] = 1-rand.nextDouble();
+				}
+				else
+					for(int k=0;k<spec.dim;k++)
+						value[k] = 2*rand.nextDouble()-1;
+
+				int best = 0, second = -1;
+				for(int c=0;c<nr_w;c++)
+				{
+					double s = 0;
+					for(int k=0;k<spec.nnz;k++)
+						s += w[c][feature[k]]*round(value[k]);
+					score[c] = s;
+					if(score[c] > score[best])
+					{
+						second = best;
+						best = c;
+					}
+					else if(c != best && (second < 0 || score[c] > score[second]))
+						second = c;
+				}
+				label = best;
+				if(spec.nr_class == 0 || spec.noise > 0 || second < 0 ||
+				   score[best]-score[second] >= margin)
+					break;
+			}
+
+			sb.setLength(0);
+			if(spec.nr_class == 0)
+				append(sb,score[0]/sd+spec.noise*rand.nextGaussian());
+			else
+			{
+				if(rand.nextDouble() < spec.noise)
+					label = (label+1+rand.nextInt(spec.nr_class-1))%spec.nr_class;
+				if(spec.nr_class == 2)
+					sb.append(label == 0 ? "+1" : "-1");
+				else
+					sb.append(label+1);
+			}
+			for(int k=0;k<spec.nnz;k++)
+			{
+				sb.append(' ').append(feature[k]).append(':');
+				append(sb,value[k]);
+			}
+			sb.append('\n');
+			out.append(sb);
+		}
+	}
+
+	// values are written with 4 decimals
+	private static double round(double v)
+	{
+		return Math.round(v*10000)/10000.0;
+	}
+
+	private static void append(StringBuilder sb, double v)
+	{
+		long q = Math.round(v*10000);
+		if(q < 0)
+		{
+			sb.append('-');
+			q = -q;
+		}
+		sb.append(q/10000).append('.');
+		long frac = q%10000;
+		for(long d=1000;d>frac && d>1;d/=10)
+			sb.append('0');
+		sb.append(frac);
+	}
+}
@@ -0,0 +1,41 @@
+package libsvm;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+//
+// Dot product of two training rows, in the storage svm_train picks for
+// the data: compressed sparse rows, or dense rows once most features
+// are nonzero (see svm.dense_pays)
+//
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DotBenchmark {
+	@Param({"100", "1000"})
+	public int dim;
+
+	@Param({"0.01", "0.1", "1.0"})
+	public double density;
+
+	private static final int L = 512;
+	private svm_problem prob;
+	private int i;
+
+	@Setup
+	public void setup()
+	{
+		svm_parameter param = Synthetic.param("LINEAR",dim);
+		prob = svm.train_problem(Synthetic.problem(L,dim,density,1),param);
+	}
+
+	@Benchmark
+	public double dot()
+	{
+		i = (i+1)&(L-1);
+		int j = (i*7+1)&(L-1);
+		return svm.dot(prob.x_index,prob.x_value,prob.x_start[i],prob.x_end[i],prob.x_start[j],prob.x_end[j]);
+	}
+}
@@ -0,0 +1,485 @@
+package libsvm;
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.*;
+
+//
+// End-to-end benchmarks of the command line tools
+//
+//   java -cp benchmarks.jar libsvm.EndToEnd run [--option value ...]
+//   java -cp benchmarks.jar libsvm.EndToEnd compare old.jsonl new.jsonl
+//
+// run generates a training and a test file (see Datasets) for every
+// number of rows and every data set, scales both with svm-scale, then
+// runs svm-train and svm-predict on them for every SVM and kernel type
+// that fits the data set, each tool in a JVM of its own (see
+// EndToEndStep). The report has one JSON object per line: the
+// environment first, then one for each step, with its wall and CPU time,
+// peak heap and GC, the solver iterations and support vectors of a
+// training, and the accuracy or mean squared error of a prediction.
+// Rows are taken in increasing order and a training that times out is
+// not tried again on more rows. compare lines up the steps of two
+// reports, e.g. of two versions, by data set, rows, step and type.
+//
+public final class EndToEnd {
+	private static final String[][] OPTIONS = {
+		{"rows", "10000,100000,1000000", "rows of the training files; test files have a tenth, at least 1000"},
+		{"layout", "dense,sparse", "dense and/or sparse data sets"},
+		{"noise", "0,0.1", "label noise: 0 is separable, else the chance a label is wrong (stddev for regression)"},
+		{"classes", "2,5", "classes of the classification data sets"},
+		{"svm-type", "c_svc,nu_svc,one_class,epsilon_svr,nu_svr", "SVM types; the SVR ones train on regression data sets"},
+		{"kernel", "linear,poly,rbf,sigmoid", "kernel types"},
+		{"dim", "20", "features of the dense data sets"},
+		{"sparse-dim", "2000", "features of the sparse data sets"},
+		{"nnz", "20", "nonzero features of each sparse row"},
+		{"train-args", "", "more svm-train options, e.g. \"-m 1000 -h 0\""},
+		{"jvm-args", "", "options of the JVMs running the tools, e.g. \"-Xmx8g\""},
+		{"repeat", "1", "runs of every step"},
+		{"timeout", "3600", "seconds a step may take"},
+		{"dir", "e2e", "directory of the data sets, models and logs"},
+		{"out", "e2e-report.jsonl", "report file"},
+		{"label", "", "name of the version under test, copied to the report"},
+	};
+
+	private static final String[] SVM_TYPE = {"c_svc", "nu_svc", "one_class", "epsilon_svr", "nu_svr"};
+	private static final String[] KERNEL_TYPE = {"linear", "poly", "rbf", "sigmoid"};
+	private static final long TRAIN_SEED = 1, TEST_SEED = 2;
+
+	private final Map<String,String> option = new LinkedHashMap<String,String>();
+	private File dir;
+	private PrintWriter report;
+	private final Set<String> timed_out = new HashSet<String>();
+
+	private static void exit_with_help()
+	{
+		System.err.print(
+		 "Usage: EndToEnd run [--option value ...]\n"
+		+"       EndToEnd compare old_report new_report\n"
+		+"options of run:\n");
+		for(String[] o : OPTIONS)
+			System.err.print("--"+o[0]+" : "+o[2]+" (default "+(o[1].isEmpty() ? "none" : o[1])+")\n");
+		System.exit(1);
+	}
+
+	public static void main(String[] argv) throws Exception
+	{
+		if(argv.length == 3 && argv[0].equals("compare"))
+			compare(argv[1],argv[2]);
+		else if(argv.length >= 1 && argv[0].equals("run"))
+			new EndToEnd().run(Arrays.copyOfRange(argv,1,argv.length));
+		else
+			exit_with_help();
+	}
+
+	private static List<String> list(String s)
+	{
+		List<String> l = new ArrayList<String>();
+		for(String t : s.split(","))
+			if(!t.trim().isEmpty())
+				l.add(t.trim());
+		return l;
+	}
+
+	private static List<String> words(String s)
+	{
+		List<String> l = new ArrayList<String>();
+		for(String t : s.trim().split("\\s+"))
+			if(!t.isEmpty())
+				l.add(t);
+		return l;
+	}
+
+	private static boolean is_regression(String svm_type)
+	{
+		return svm_type.endsWith("svr");
+	}
+
+	private void run(String[] argv) throws Exception
+	{
+		for(String[] o : OPTIONS)
+			option.put(o[0],o[1]);
+		for(int i=0;i<argv.length;i+=2)
+		{
+			String name = argv[i].startsWith("--") ? argv[i].substring(2) : "";
+			if(!option.containsKey(name) || i+1 >= argv.length)
+			{
+				System.err.print("Unknown option: "+argv[i]+"\n");
+				exit_with_help();
+			}
+			option.put(name,argv[i+1]);
+		}
+
+		int[] rows = new int[list(option.get("rows")).size()];
+		for(int k=0;k<rows.length;k++)
+			rows[k] = Integer.parseInt(list(option.get("rows")).get(k));
+		Arrays.sort(rows);
+		List<String> svm_types = list(option.get("svm-type"));
+		List<String> kernel_types = list(option.get("kernel"));
+		for(String t : svm_types)
+			if(!Arrays.asList(SVM_TYPE).contains(t))
+				throw new IllegalArgumentException("unknown SVM type "+t);
+		for(String t : kernel_types)
+			if(!Arrays.asList(KERNEL_TYPE).contains(t))
+				throw new IllegalArgumentException("unknown kernel type "+t);
+
+		// a regression data set for each layout and noise if an SVR is run,
+		// a classification one for each number of classes if another is
+		List<Datasets.Spec> specs = new ArrayList<Datasets.Spec>();
+		int dim = Integer.parseInt(option.get("dim"));
+		int sparse_dim = Integer.parseInt(option.get("sparse-dim"));
+		int nnz = Integer.parseInt(option.get("nnz"));
+		List<Integer> classes = new ArrayList<Integer>();
+		for(String c : list(option.get("classes")))
+			classes.add(Integer.parseInt(c));
+		boolean classification = false, regression = false;
+		for(String t : svm_types)
+			if(is_regression(t))
+				regression = true;
+			else
+				classification = true;
+		if(regression)
+			classes.add(0);
+		for(String layout : list(option.get("layout")))
+			for(String noise : list(option.get("noise")))
+				for(int c : classes)
+					if(c == 0 ? regression : classification && c >= 2)
+						specs.add(new Datasets.Spec(layout.equals("sparse"),
+							layout.equals("sparse") ? sparse_dim : dim,nnz,c,Double.parseDouble(noise)));
+
+		dir = new File(option.get("dir"));
+		if(!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("can't create "+dir);
+		report = new PrintWriter(new FileWriter(option.get("out")));
+		Map<String,Object> env = new LinkedHashMap<String,Object>();
+		env.put("record","environment");
+		env.put("label",option.get("label"));
+		env.put("time",new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()));
+		env.put("java",System.getProperty("java.version"));
+		env.put("vm",System.getProperty("java.vm.name"));
+		env.put("os",System.getProperty("os.name")+" "+System.getProperty("os.version")+" "+System.getProperty("os.arch"));
+		env.put("cpus",Runtime.getRuntime().availableProcessors());
+		for(Map.Entry<String,String> o : option.entrySet())
+			env.put(o.getKey(),o.getValue());
+		write(env);
+
+		for(int l : rows)
+			for(Datasets.Spec spec : specs)
+			{
+				System.err.print(spec.name()+", "+l+" rows\n");
+				int test_l = Math.max(l/10,1000);
+				File train = Datasets.file(dir,spec,l,TRAIN_SEED);
+				File test = Datasets.file(dir,spec,test_l,TEST_SEED);
+				String base = spec.name()+"-l"+l;
+				File train_scaled = new File(dir,base+".scale");
+				File test_scaled = new File(dir,base+".t.scale");
+				File range = new File(dir,base+".range");
+				// zeros of sparse rows stay zeros with -l 0
+				List<String> scale_args = spec.sparse ? Arrays.asList("-l","0") : new ArrayList<String>();
+
+				boolean scaled = true;
+				for(int r=0;r<repeat();r++)
+				{
+					Map<String,Object> rec = record(spec,l,"scale",null,null,r);
+					List<String> args = new ArrayList<String>(scale_args);
+					args.addAll(Arrays.asList("-s",range.getPath(),train.getPath(),train_scaled.getPath()));
+					scaled &= step("svm_scale",new File(dir,base+".scale.log"),args,rec);
+					write(rec);
+				}
+				if(scaled)
+				{
+					Map<String,Object> rec = record(spec,test_l,"scale_test",null,null,0);
+					scaled = step("svm_scale",new File(dir,base+".t.scale.log"),
+						Arrays.asList("-r",range.getPath(),test.getPath(),test_scaled.getPath()),rec);
+					if(!scaled)
+						write(rec);
+				}
+
+				for(String svm_type : svm_types)
+				{
+					if(is_regression(svm_type) != (spec.nr_class == 0))
+						continue;
+					for(String kernel_type : kernel_types)
+						train_and_predict(spec,l,svm_type,kernel_type,scaled,train_scaled,test_scaled);
+				}
+			}
+		report.close();
+	}
+
+	private int repeat()
+	{
+		return Integer.parseInt(option.get("repeat"));
+	}
+
+	private void train_and_predict(Datasets.Spec spec, int l, String svm_type, String kernel_type,
+		boolean scaled, File train, File test) throws Exception
+	{
+		String key = spec.name()+"/"+svm_type+"/"+kernel_type;
+		String base = spec.name()+"-l"+l+"-"+svm_type+"-"+kernel_type;
+		File model = new File(dir,base+".model");
+		File output = new File(dir,base+".out");
+		for(int r=0;r<repeat();r++)
+		{
+			Map<String,Object> rec = record(spec,l,"train",svm_type,kernel_type,r);
+			if(!scaled || timed_out.contains(key))
+			{
+				rec.put("status","skipped");
+				write(rec);
+				return;
+			}
+			List<String> args = new ArrayList<String>();
+			args.add("-s");
+			args.add(Integer.toString(Arrays.asList(SVM_TYPE).indexOf(svm_type)));
+			args.add("-t");
+			args.add(Integer.toString(Arrays.asList(KERNEL_TYPE).indexOf(kernel_type)));
+			args.addAll(words(option.get("train-args")));
+			args.add(train.getPath());
+			args.add(model.getPath());
+			File log = new File(dir,base+".train.log");
+			boolean ok = step("svm_train",log,args,rec);
+			if(ok)
+			{
+				// one "optimization finished" line per solver run
+				Matcher m = Pattern.compile("optimization finished, #iter = (\\d+)").matcher(read(log));
+				long nr_solve = 0, nr_iter = 0;
+				while(m.find())
+				{
+					nr_solve++;
+					nr_iter += Long.parseLong(m.group(1));
+				}
+				rec.put("nr_solve",nr_solve);
+				rec.put("nr_iter",nr_iter);
+				m = Pattern.compile("(?m)^total_sv (\\d+)$").matcher(read(model));
+				if(m.find())
+					rec.put("nr_sv",Long.parseLong(m.group(1)));
+			}
+			else if(rec.get("status").equals("timeout"))
+				timed_out.add(key);
+			write(rec);
+			if(!ok)
+				return;
+
+			rec = record(spec,l,"predict",svm_type,kernel_type,r);
+			log = new File(dir,base+".predict.log");
+			if(step("svm_predict",log,Arrays.asList(test.getPath(),model.getPath(),output.getPath()),rec))
+			{
+				String s = read(log);
+				Matcher m;
+				if(is_regression(svm_type))
+				{
+					if((m = Pattern.compile("Mean squared error = (\\S+)").matcher(s)).find())
+						rec.put("mse",Double.parseDouble(m.group(1)));
+				}
+				// the labels of one-class SVM are not the classes of the data
+				else if(!svm_type.equals("one_class"))
+				{
+					if((m = Pattern.compile("Accuracy = ([^%]+)%").matcher(s)).find())
+						rec.put("accuracy",Double.parseDouble(m.group(1)));
+				}
+			}
+			write(rec);
+		}
+	}
+
+	private static Map<String,Object> record(Datasets.Spec spec, int l, String step,
+		String svm_type, String kernel_type, int run)
+	{
+		Map<String,Object> rec = new LinkedHashMap<String,Object>();
+		rec.put("record","step");
+		rec.put("dataset",spec.name());
+		rec.put("layout",spec.sparse ? "sparse" : "dense");
+		rec.put("dim",spec.dim);
+		rec.put("nnz",spec.nnz);
+		rec.put("classes",spec.nr_class);
+		rec.put("noise",spec.noise);
+		rec.put("rows",l);
+		rec.put("step",step);
+		rec.put("svm_type",svm_type);
+		rec.put("kernel_type",kernel_type);
+		rec.put("run",run);
+		return rec;
+	}
+
+	// runs a tool with EndToEndStep and puts its status and measurements
+	// in rec; true if it finished without error
+	private boolean step(String tool, File log, List<String> args, Map<String,Object> rec) throws Exception
+	{
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(new File(new File(System.getProperty("java.home"),"bin"),"java").getPath());
+		cmd.addAll(words(option.get("jvm-args")));
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(EndToEndStep.class.getName());
+		cmd.add(tool);
+		cmd.add(log.getPath());
+		cmd.addAll(args);
+		File result = new File(log.getPath()+".result");
+		File err = new File(log.getPath()+".err");
+		Process p = new ProcessBuilder(cmd).redirectOutput(result).redirectError(err).start();
+		if(!p.waitFor(Long.parseLong(option.get("timeout")),TimeUnit.SECONDS))
+		{
+			p.destroyForcibly().waitFor();
+			rec.put("status","timeout");
+			return false;
+		}
+		String[] s = read(result).trim().split(" ");
+		if(p.exitValue() != 0 || s.length != 5)
+		{
+			rec.put("status","error");
+			String e = read(err).trim();
+			rec.put("error",e.isEmpty() ? "exit status "+p.exitValue() : e.split("\n")[0]);
+			return false;
+		}
+		rec.put("status","ok");
+		rec.put("wall_ms",Long.parseLong(s[0])/1e6);
+		rec.put("cpu_ms",Long.parseLong(s[1])/1e6);
+		rec.put("peak_heap_bytes",Long.parseLong(s[2]));
+		rec.put("gc_count",Long.parseLong(s[3]));
+		rec.put("gc_ms",Long.parseLong(s[4]));
+		return true;
+	}
+
+	private static String read(File f) throws IOException
+	{
+		return new String(java.nio.file.Files.readAllBytes(f.toPath()));
+	}
+
+	private void write(Map<String,Object> rec)
+	{
+		report.println(json(rec));
+		report.flush();
+	}
+
+	private static String json(Map<String,Object> rec)
+	{
+		StringBuilder sb = new StringBuilder("{");
+		for(Map.Entry<String,Object> e : rec.entrySet())
+		{
+			if(sb.length() > 1)
+				sb.append(',');
+			sb.append('"').append(e.getKey()).append("\":");
+			Object v = e.getValue();
+			if(v == null || (v instanceof Double && (((Double)v).isNaN() || ((Double)v).isInfinite())))
+				sb.append("null");
+			else if(v instanceof Number)
+				sb.append(v);
+			else
+			{
+				sb.append('"');
+				for(char c : v.toString().toCharArray())
+					if(c == '"' || c == '\\')
+						sb.append('\\').append(c);
+					else if(c < ' ')
+						sb.append(String.format("\\u%04x",(int)c));
+					else
+						sb.append(c);
+				sb.append('"');
+			}
+		}
+		return sb.append('}').toString();
+	}
+
+	//
+	// compare
+	//
+
+	// the flat objects json writes, with values as strings
+	private static List<Map<String,String>> read_report(String file) throws IOException
+	{
+		Pattern field = Pattern.compile("\"([^\"]+)\":(?:\"((?:[^\"\\\\]|\\\\.)*)\"|([^,}]+))");
+		List<Map<String,String>> records = new ArrayList<Map<String,String>>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		String line;
+		while((line = in.readLine()) != null)
+		{
+			Map<String,String> rec = new LinkedHashMap<String,String>();
+			Matcher m = field.matcher(line);
+			while(m.find())
+				rec.put(m.group(1),m.group(2) != null ? m.group(2).replaceAll("\\\\(.)","$1") : m.group(3));
+			if(!rec.isEmpty())
+				records.add(rec);
+		}
+		in.close();
+		return records;
+	}
+
+	// per step, the median wall time of its runs and the first run's
+	// other results
+	private static Map<String,Map<String,String>> steps(String file) throws IOException
+	{
+		Map<String,List<Double>> wall = new HashMap<String,List<Double>>();
+		Map<String,Map<String,String>> steps = new LinkedHashMap<String,Map<String,String>>();
+		for(Map<String,String> rec : read_report(file))
+		{
+			if(!"step".equals(rec.get("record")))
+				continue;
+			String key = rec.get("dataset")+" "+rec.get("rows")+" "+rec.get("step")+
+				(rec.get("svm_type").equals("null") ? "" : " "+rec.get("svm_type")+" "+rec.get("kernel_type"));
+			if(!steps.containsKey(key))
+			{
+				steps.put(key,rec);
+				wall.put(key,new ArrayList<Double>());
+			}
+			if("ok".equals(rec.get("status")))
+				wall.get(key).add(Double.parseDouble(rec.get("wall_ms")));
+		}
+		for(Map.Entry<String,Map<String,String>> e : steps.entrySet())
+		{
+			List<Double> w = wall.get(e.getKey());
+			Collections.sort(w);
+			e.getValue().put("wall_ms",w.isEmpty() ? null : Double.toString(w.get(w.size()/2)));
+		}
+		return steps;
+	}
+
+	private static String value(Map<String,String> rec, String name)
+	{
+		if(rec == null)
+			return "-";
+		if(!"ok".equals(rec.get("status")))
+			return rec.get("status");
+		String v = rec.get(name);
+		return v == null || v.equals("null") ? "-" : v;
+	}
+
+	private static String ms(Map<String,String> rec)
+	{
+		String v = value(rec,"wall_ms");
+		return v.matches("[-0-9.eE]+") && !v.equals("-") ? String.format("%.1f",Double.parseDouble(v)) : v;
+	}
+
+	private static String mb(Map<String,String> rec)
+	{
+		String v = value(rec,"peak_heap_bytes");
+		return v.matches("[0-9]+") ? Long.toString(Long.parseLong(v)>>20) : v;
+	}
+
+	private static String quality(Map<String,String> rec)
+	{
+		String v = value(rec,"accuracy");
+		if(v.equals("-"))
+			v = value(rec,"mse");
+		return v.matches("[-0-9.eE]+") && !v.equals("-") ? String.format("%.4g",Double.parseDouble(v)) : v;
+	}
+
+	private static void compare(String old_file, String new_file) throws IOException
+	{
+		Map<String,Map<String,String>> old_steps = steps(old_file);
+		Map<String,Map<String,String>> new_steps = steps(new_file);
+		Set<String> keys = new LinkedHashSet<String>(old_steps.keySet());
+		keys.addAll(new_steps.keySet());
+		String format = "%-64s %10s %10s %6s %10s %10s %7s %7s %11s %11s\n";
+		System.out.printf(format,"step","old ms","new ms","ratio","old iter","new iter",
+			"old MB","new MB","old acc/mse","new acc/mse");
+		for(String key : keys)
+		{
+			Map<String,String> o = old_steps.get(key), n = new_steps.get(key);
+			String ratio = "-";
+			if(ms(o).matches("[0-9.]+") && ms(n).matches("[0-9.]+") && Double.parseDouble(value(o,"wall_ms")) > 0)
+				ratio = String.format("%.2f",Double.parseDouble(value(n,"wall_ms"))/Double.parseDouble(value(o,"wall_ms")));
+			System.out.printf(format,key,ms(o),ms(n),ratio,value(o,"nr_iter"),value(n,"nr_iter"),
+				mb(o),mb(n),quality(o),quality(n));
+		}
+	}
+}
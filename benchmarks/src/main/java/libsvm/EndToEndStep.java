@@ -0,0 +1,85 @@
+package libsvm;
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import svm.svm_predict;
+import svm.svm_scale;
+import svm.svm_train;
+
+//
+// One step of the end-to-end benchmarks, run by EndToEnd in a JVM of its
+// own:
+//
+//   EndToEndStep svm_train|svm_predict|svm_scale log_file [tool options]
+//
+// runs the command line tool with its standard output sent to log_file,
+// then prints "wall_ns cpu_ns peak_heap_bytes gc_count gc_ms" for it. The
+// peak heap is the sum of the peaks of the heap memory pools since the
+// tool started, which bounds the heap in use at any one time from above.
+//
+public final class EndToEndStep {
+	public static void main(String[] argv) throws Exception
+	{
+		String[] args = Arrays.copyOfRange(argv,2,argv.length);
+		PrintStream out = System.out;
+		PrintStream log = new PrintStream(new BufferedOutputStream(new FileOutputStream(argv[1])));
+		List<MemoryPoolMXBean> heap = new ArrayList<MemoryPoolMXBean>();
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if(pool.getType() == MemoryType.HEAP)
+			{
+				pool.resetPeakUsage();
+				heap.add(pool);
+			}
+		long gc_count = -gc_count(), gc_ms = -gc_ms();
+		long cpu_ns = -cpu_ns();
+		long wall_ns = -System.nanoTime();
+		System.setOut(log);
+		try {
+			if(argv[0].equals("svm_train"))
+				svm_train.main(args);
+			else if(argv[0].equals("svm_predict"))
+				svm_predict.main(args);
+			else if(argv[0].equals("svm_scale"))
+				svm_scale.main(args);
+			else
+				throw new IllegalArgumentException("unknown tool "+argv[0]);
+		} finally {
+			System.setOut(out);
+			log.close();
+		}
+		wall_ns += System.nanoTime();
+		cpu_ns += cpu_ns();
+		gc_count += gc_count();
+		gc_ms += gc_ms();
+		long peak = 0;
+		for(MemoryPoolMXBean pool : heap)
+			peak += pool.getPeakUsage().getUsed();
+		out.println(wall_ns+" "+cpu_ns+" "+peak+" "+gc_count+" "+gc_ms);
+		// in case a tool left threads that are not daemons
+		System.exit(0);
+	}
+
+	private static long cpu_ns()
+	{
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if(os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime();
+		return 0;
+	}
+
+	private static long gc_count()
+	{
+		long n = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			n += Math.max(gc.getCollectionCount(),0);
+		return n;
+	}
+
+	private static long gc_ms()
+	{
+		long t = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			t += Math.max(gc.getCollectionTime(),0);
+		return t;
+	}
+}
@@ -0,0 +1,62 @@
+package libsvm;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+//
+// Kernel evaluation: single values through svm.k_function, the
+// svm_node[] path that prediction without a dense model takes, and
+// whole Q columns as the solver computes them on a cache miss
+//
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+	@Param({"100", "1000"})
+	public int dim;
+
+	@Param({"0.01", "0.1", "1.0"})
+	public double density;
+
+	@Param({"LINEAR", "POLY", "RBF", "SIGMOID"})
+	public String kernel;
+
+	private static final int L = 512;
+	private svm_node[][] x;
+	private svm_parameter param;
+	private svm.SVC_Columns Q;
+	private float[] column;
+	private int i;
+
+	@Setup
+	public void setup()
+	{
+		param = Synthetic.param(kernel,dim);
+		svm_problem prob = Synthetic.problem(L,dim,density,1);
+		x = Synthetic.rows(prob);
+		prob = svm.train_problem(prob,param);
+		byte[] y = new byte[L];
+		for(int k=0;k<L;k++)
+			y[k] = (byte)(prob.y[k] > 0 ? +1 : -1);
+		Q = new svm.SVC_Columns(prob,param,y);
+		column = new float[L];
+	}
+
+	@Benchmark
+	public double k_function()
+	{
+		i = (i+1)&(L-1);
+		return svm.k_function(x[i],x[(i*7+1)&(L-1)],param);
+	}
+
+	// L entries per call
+	@Benchmark
+	public float[] column()
+	{
+		i = (i+1)&(L-1);
+		Q.fill_column(i,column,0,L);
+		return column;
+	}
+}
@@ -0,0 +1,48 @@
+package libsvm;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+//
+// svm.svm_predict_values on a two-class model of nr_sv support vectors,
+// one query row per call
+//
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PredictBenchmark {
+	@Param({"100", "1000", "10000"})
+	public int nr_sv;
+
+	@Param({"20", "1000"})
+	public int dim;
+
+	@Param({"0.05", "1.0"})
+	public double density;
+
+	@Param({"LINEAR", "POLY", "RBF"})
+	public String kernel;
+
+	private static final int NR_QUERY = 256;
+	private svm_model model;
+	private svm_node[][] x;
+	private double[] dec_values;
+	private int i;
+
+	@Setup
+	public void setup()
+	{
+		model = Synthetic.model(nr_sv,dim,density,kernel,1);
+		x = Synthetic.rows(Synthetic.problem(NR_QUERY,dim,density,2));
+		dec_values = new double[1];
+	}
+
+	@Benchmark
+	public double predict_values()
+	{
+		i = (i+1)&(NR_QUERY-1);
+		return svm.svm_predict_values(model,x[i],dec_values);
+	}
+}
@@ -0,0 +1,114 @@
+package libsvm;
+import java.util.*;
+
+//
+// Synthetic data for the benchmarks, generated in-process from a seed
+//
+// Rows have dim features of which about density*dim are nonzero, with
+// values uniform in [-1,1) and labels +1/-1 at random. Kernel types are
+// named as in svm_train's -t help (LINEAR, POLY, RBF, SIGMOID).
+//
+final class Synthetic {
+	static int kernel_type(String name)
+	{
+		if(name.equals("LINEAR")) return svm_parameter.LINEAR;
+		if(name.equals("POLY")) return svm_parameter.POLY;
+		if(name.equals("RBF")) return svm_parameter.RBF;
+		if(name.equals("SIGMOID")) return svm_parameter.SIGMOID;
+		throw new IllegalArgumentException("unknown kernel type "+name);
+	}
+
+	// svm_train's defaults, with gamma = 1/dim
+	static svm_parameter param(String kernel, int dim)
+	{
+		svm_parameter param = new svm_parameter();
+		param.svm_type = svm_parameter.C_SVC;
+		param.kernel_type = kernel_type(kernel);
+		param.degree = 3;
+		param.gamma = 1.0/dim;
+		param.coef0 = 0;
+		param.nu = 0.5;
+		param.cache_size = 100;
+		param.C = 1;
+		param.eps = 1e-3;
+		param.p = 0.1;
+		param.shrinking = 1;
+		param.probability = 0;
+		param.nr_weight = 0;
+		param.weight_label = new int[0];
+		param.weight = new double[0];
+		param.nr_thread = 1;
+		param.nr_task_thread = 1;
+		return param;
+	}
+
+	// l rows in compressed sparse row form
+	static svm_problem problem(int l, int dim, double density, long seed)
+	{
+		Random rand = new Random(seed);
+		int nnz_row = Math.max(1,(int)Math.round(density*dim));
+		svm_problem prob = new svm_problem();
+		prob.l = l;
+		prob.y = new double[l];
+		prob.x_index = new int[l*nnz_row];
+		prob.x_value = new double[l*nnz_row];
+		prob.x_start = new int[l];
+		prob.x_end = new int[l];
+		int[] feature = new int[dim];
+		for(int k=0;k<dim;k++)
+			feature[k] = k+1;
+		int nnz = 0;
+		for(int i=0;i<l;i++)
+		{
+			// first nnz_row of a partial shuffle, in increasing order
+			for(int k=0;k<nnz_row;k++)
+			{
+				int j = k+rand.nextInt(dim-k);
+				do {int tmp=feature[k]; feature[k]=feature[j]; feature[j]=tmp;} while(false);
+			}
+			Arrays.sort(feature,0,nnz_row);
+			prob.x_start[i] = nnz;
+			for(int k=0;k<nnz_row;k++)
+			{
+				prob.x_index[nnz] = feature[k];
+				prob.x_value[nnz] = 2*rand.nextDouble()-1;
+				++nnz;
+			}
+			prob.x_end[i] = nnz;
+			prob.y[i] = rand.nextBoolean() ? +1 : -1;
+		}
+		return prob;
+	}
+
+	static svm_node[][] rows(svm_problem prob)
+	{
+		svm_node[][] x = new svm_node[prob.l][];
+		for(int i=0;i<prob.l;i++)
+			x[i] = svm.csr_row(prob,i);
+		return x;
+	}
+
+	// a two-class model of nr_sv support vectors, built as svm_train
+	// and svm_load_model build theirs
+	static svm_model model(int nr_sv, int dim, double density, String kernel, long seed)
+	{
+		Random rand = new Random(seed);
+		svm_problem prob = problem(nr_sv,dim,density,seed);
+		svm_model model = new svm_model();
+		model.param = param(kernel,dim);
+		model.nr_class = 2;
+		model.l = nr_sv;
+		model.SV = rows(prob);
+		model.sv_coef = new double[1][nr_sv];
+		for(int i=0;i<nr_sv;i++)
+			model.sv_coef[0][i] = (i < nr_sv/2 ? 1 : -1)*rand.nextDouble();
+		model.rho = new double[] {rand.nextDouble()-0.5};
+		model.label = new int[] {+1,-1};
+		model.nSV = new int[] {nr_sv/2,nr_sv-nr_sv/2};
+		svm.svm_expand_model(model);
+		svm.svm_densify_model(model);
+		svm.svm_index_model(model);
+		svm.svm_norm_model(model);
+		return model;
+	}
+}
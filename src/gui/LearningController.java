@@ -3,6 +3,9 @@ package gui;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
+import javax.swing.SwingUtilities;
+
+import libsvm.svm_grid;
 import libsvm.svm_parameter;
 
 public class LearningController {
@@ -31,6 +34,37 @@ public class LearningController {
 		view.scaleListener(new ScaleButtonActionListener());
 		view.trainListener(new TrainButtonActionListener());
 		view.predictListener(new PredictButtonActionListener());
+		view.gridSearchListener(new GridSearchButtonActionListener());
+		view.resetGridListener(new ResetGridButtonActionListener());
+	}
+	
+	/**
+	 * Reads the svm parameter from the settings of the train tab.
+	 * 
+	 * @return a new parameter with the user provided settings.
+	 */
+	private svm_parameter readParameter() {
+		svm_parameter parameter = new svm_parameter();
+		parameter.svm_type = view.getSvmType();
+		parameter.kernel_type = view.getKernelType();
+		parameter.degree = view.getDegree();
+		parameter.gamma = view.getGamma();
+		parameter.coef0 = view.getCoef0();
+		
+		parameter.cache_size = view.getCacheSize();
+		parameter.eps = view.getEps();
+		parameter.C = view.getCost();
+		parameter.nr_weight = view.getNrWeight();
+		//TODO: implement functionality and uncomment these lines.
+		//parameter.weight_label = view.getWeightLabel();
+		//parameter.weight = view.getWeight();
+		parameter.nu = view.getNu();
+		parameter.p = view.getEpsilonLoss();
+		parameter.shrinking = view.getShrinking()?1:0;
+		parameter.probability = view.getProbability()?1:0;
+		parameter.nr_thread = view.getThreads();
+		parameter.nr_task_thread = view.getThreads();
+		return parameter;
 	}
 	
 	/**
@@ -229,24 +263,7 @@ public class LearningController {
     		//TODO: Error checking
     		
     		// Making the parameter
-    		svm_parameter parameter = new svm_parameter();
-    		parameter.svm_type = view.getSvmType();
-    		parameter.kernel_type = view.getKernelType();
-    		parameter.degree = view.getDegree();
-    		parameter.gamma = view.getGamma();
-    		parameter.coef0 = view.getCoef0();
-    		
-    		parameter.cache_size = view.getCacheSize();
-    		parameter.eps = view.getEps();
-    		parameter.C = view.getCost();
-    		parameter.nr_weight = view.getNrWeight();
-    		//TODO: implement functionality and uncomment these lines.
-    		//parameter.weight_label = view.getWeightLabel();
-    		//parameter.weight = view.getWeight();
-    		parameter.nu = view.getNu();
-    		parameter.p = view.getEpsilonLoss();
-    		parameter.shrinking = view.getShrinking()?1:0;
-    		parameter.probability = view.getProbability()?1:0;
+    		svm_parameter parameter = readParameter();
     		
     		// Passing the parameter to the model
     		model.train(parameter, view.getCrossValidation(), 
@@ -263,7 +280,110 @@ public class LearningController {
     	 */
     	public void actionPerformed(ActionEvent e) {
     		model.predict(view.getPredictProbability(), view.getDataFilepath(), 
-    				view.getModelFilepath(), view.getOutputFilepath());
+    				view.getModelFilepath(), view.getOutputFilepath(),
+    				view.getThreads());
+    	}
+    }
+    
+    /**
+     * This class listens to the grid search tab reset button to reset the 
+     * search ranges to default.
+     */
+    private class ResetGridButtonActionListener implements ActionListener {
+    	/**
+    	 * Resets all grid search options to their defaults.
+    	 */
+    	public void actionPerformed(ActionEvent e) {
+    		view.resetGrid();
+    	}
+    }
+    
+    /**
+     * This class listens to the grid search button.
+     */
+    private class GridSearchButtonActionListener implements ActionListener {
+    	/**
+    	 * Searches the ranges of the grid search tab around the settings of 
+    	 * the train tab. Only parameters the SVM and kernel type use are 
+    	 * searched. The search runs off the event thread so results can be 
+    	 * shown as they come; the best parameters found are then copied to 
+    	 * the train tab.
+    	 */
+    	public void actionPerformed(ActionEvent e) {
+    		final svm_parameter parameter = readParameter();
+    		final svm_grid grid = new svm_grid();
+    		final String dataFilepath = view.getDataFilepath();
+    		int svmType = parameter.svm_type;
+    		int kernelType = parameter.kernel_type;
+    		
+    		if (svmType == svm_parameter.C_SVC 
+    				|| svmType == svm_parameter.EPSILON_SVR 
+    				|| svmType == svm_parameter.NU_SVR) {
+    			grid.values[svm_grid.C] = view.getGridCost();
+    		}
+    		if (kernelType == svm_parameter.POLY 
+    				|| kernelType == svm_parameter.RBF 
+    				|| kernelType == svm_parameter.SIGMOID) {
+    			grid.values[svm_grid.GAMMA] = view.getGridGamma();
+    		}
+    		if (kernelType == svm_parameter.POLY) {
+    			grid.values[svm_grid.DEGREE] = view.getGridDegree();
+    		}
+    		if (kernelType == svm_parameter.POLY 
+    				|| kernelType == svm_parameter.SIGMOID) {
+    			grid.values[svm_grid.COEF0] = view.getGridCoef0();
+    		}
+    		if (svmType == svm_parameter.NU_SVC 
+    				|| svmType == svm_parameter.ONE_CLASS 
+    				|| svmType == svm_parameter.NU_SVR) {
+    			grid.values[svm_grid.NU] = view.getGridNu();
+    		}
+    		if (svmType == svm_parameter.EPSILON_SVR) {
+    			grid.values[svm_grid.P] = view.getGridEpsilonLoss();
+    		}
+    		grid.nr_fold = view.getGridFolds();
+    		if (view.getGridHalving()) {
+    			grid.halving = 2;
+    		}
+    		
+    		view.setGridSearchEnabled(false);
+    		new Thread(new Runnable() {
+    			public void run() {
+    				svm_parameter best = null;
+    				Throwable failure = null;
+    				try {
+    					best = model.gridSearch(parameter, grid, dataFilepath);
+    				} catch (RuntimeException | Error ex) {
+    					ex.printStackTrace();
+    					failure = ex;
+    				} finally {
+    					finish(best, failure);
+    				}
+    			}
+    		}).start();
+    	}
+    	
+    	/**
+    	 * Ends a search on the event thread: copies the best parameters to 
+    	 * the train tab, or reports what stopped the search, and enables the 
+    	 * grid search button again.
+    	 * 
+    	 * @param best
+    	 *      The best parameters found, or null if there are none.
+    	 * @param failure
+    	 *      What the search threw, or null if it returned.
+    	 */
+    	private void finish(final svm_parameter best, final Throwable failure) {
+    		SwingUtilities.invokeLater(new Runnable() {
+    			public void run() {
+    				if (failure != null) {
+    					view.genericErrorBox("Grid search failed: " + failure);
+    				} else if (best != null) {
+    					view.setParameters(best);
+    				}
+    				view.setGridSearchEnabled(true);
+    			}
+    		});
     	}
     }
 }
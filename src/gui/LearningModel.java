@@ -3,7 +3,10 @@ package gui;
 import java.io.IOException;
 import java.util.*;
 
+import libsvm.svm_grid;
+import libsvm.svm_grid_interface;
 import libsvm.svm_parameter;
+import libsvm.svm_problem;
 import svm.svm_predict;
 import svm.svm_scale;
 import svm.svm_train;
@@ -162,6 +165,10 @@ public class LearningModel {
 		commands.push(String.valueOf(parameters.shrinking));
 		commands.push("-b");
 		commands.push(String.valueOf(parameters.probability));
+		commands.push("-j");
+		commands.push(String.valueOf(parameters.nr_thread));
+		commands.push("-J");
+		commands.push(String.valueOf(parameters.nr_task_thread));
 		if (parameters.nr_weight != 0) { 
 			commands.push("-wi");//TODO: implement
 		}
@@ -199,14 +206,106 @@ public class LearningModel {
 		return;
 	}
 	
+	/**
+	 * Searches the grid for the parameters with the best cross validation 
+	 * result on the data file. The file is read once and the problem shared 
+	 * by all points, which run parameters.nr_task_thread at a time. Each 
+	 * result is printed as soon as its point is done; solver output is 
+	 * suppressed while searching.
+	 * 
+	 * @param parameters svm parameter data for all settings not searched. A 
+	 * 		gamma of -1 stands for the default 1/num_features.
+	 * @param grid values to search and number of folds.
+	 * @param dataFilepath The filepath (absolute) to the data file.
+	 * @return the best parameters found, or null if the search failed.
+	 * 
+	 * @require parameters != null && grid != null && dataFilepath != null
+	 */
+	public svm_parameter gridSearch(svm_parameter parameters, 
+			final svm_grid grid, String dataFilepath) {
+		System.out.println("\n*** Attempting to run grid search over " 
+				+ grid.nr_point() + " points" 
+				+ (grid.halving >= 2 ? " by successive halving" : "") 
+				+ " ***\n");
+		svm_problem problem;
+		try {
+			problem = svm_train.read_problem(dataFilepath);
+		} catch (IOException e) {
+			System.err.println("Error accessing specified file(s)");
+			return null;
+		} catch (Exception e) {
+			System.err.println("Wrong input format in data file");
+			return null;
+		}
+		
+		if (parameters.gamma == -1.0) { // Default of 1/num_features.
+			int maxIndex = 0;
+			for (int i = 0; i < problem.l; ++i) {
+				if (problem.x_end[i] > problem.x_start[i]) {
+					maxIndex = Math.max(maxIndex, 
+							problem.x_index[problem.x_end[i] - 1]);
+				}
+			}
+			parameters.gamma = maxIndex > 0 ? 1.0 / maxIndex : 0;
+		}
+		
+		// Points share the dot products of the rows, in as much memory as 
+		// the kernel cache is given.
+		if (parameters.gram_size == 0) {
+			parameters.gram_size = parameters.cache_size;
+		}
+		
+		final boolean regression = svm_grid.is_regression(parameters);
+		grid.quiet = true;
+		// Results come from the worker threads of the search; println is 
+		// synchronized, so lines do not interleave.
+		svm_parameter best = grid.search(problem, parameters, 
+				new svm_grid_interface() {
+			public void result(svm_parameter p, double score) {
+				System.out.println(describe(grid, p) + ": " 
+						+ (Double.isNaN(score) ? "invalid parameters" 
+						: regression ? "mean squared error = " + score 
+						: "accuracy = " + score + "%"));
+			}
+		});
+		
+		if (best == null) {
+			System.out.println("No valid parameters in the grid");
+		} else {
+			System.out.println("Best: " + describe(grid, best));
+		}
+		return best;
+	}
+	
+	/**
+	 * @return the values of the searched parameters of p, for output.
+	 */
+	private static String describe(svm_grid grid, svm_parameter p) {
+		String s = "";
+		if (grid.values[svm_grid.C] != null) s += " C = " + p.C;
+		if (grid.values[svm_grid.GAMMA] != null) s += " gamma = " + p.gamma;
+		if (grid.values[svm_grid.DEGREE] != null) s += " degree = " + p.degree;
+		if (grid.values[svm_grid.COEF0] != null) s += " coef0 = " + p.coef0;
+		if (grid.values[svm_grid.NU] != null) s += " nu = " + p.nu;
+		if (grid.values[svm_grid.P] != null) s += " epsilon = " + p.p;
+		return s.trim();
+	}
+	
+	/**
+	 * Runs LIBSVM predict on a data file.
+	 * 
+	 * @param threads the number of threads predicting rows of the data
+	 */
 	public void predict(boolean probabilityEstimates, String data, String model, 
-			String output) {
-		String[] argv = new String[5];
+			String output, int threads) {
+		String[] argv = new String[7];
 		argv[0] = "-b";
 		argv[1] = probabilityEstimates?"1":"0";
-		argv[2] = data;
-		argv[3] = model;
-		argv[4] = output;
+		argv[2] = "-j";
+		argv[3] = Integer.toString(threads);
+		argv[4] = data;
+		argv[5] = model;
+		argv[6] = output;
 		
 		// Attempting to run LIBSVM predict.
 		System.out.println("\n*** Attempting to run prediction" 
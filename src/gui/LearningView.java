@@ -6,6 +6,9 @@ import java.awt.*;
 import java.awt.event.ActionListener;
 import java.io.PrintStream;
 
+import libsvm.svm_grid;
+import libsvm.svm_parameter;
+
 @SuppressWarnings("serial")
 public class LearningView extends JFrame {
 	
@@ -31,7 +34,7 @@ public class LearningView extends JFrame {
     private JComboBox<String> svmType, kernelType;
     private JCheckBox shrinking, probabilityEstimates;
     private JTextField degree, gamma, coef0, cost, nu, epsilonLoss, cacheSize, 
-    		epsilonTolerance, weight, crossValidation;
+    		epsilonTolerance, weight, crossValidation, threads;
     
     /*
      * Inputs and Outputs
@@ -50,6 +53,15 @@ public class LearningView extends JFrame {
     private JCheckBox scaleSave, scaleLoad;
     private JTabbedPane tabbedPane;
     
+    /*
+     * Grid search components.
+     */
+    private JTextField costBegin, costEnd, costStep, gammaBegin, gammaEnd, 
+    		gammaStep, degreeValues, coef0Values, nuValues, epsilonLossValues, 
+    		gridFolds;
+    private JButton gridSearch, resetGrid;
+    private JCheckBox gridHalving;
+    
     /**
      * Creates a new svm_gui window.
      * @param model Learning Model in the MVC architecture. 
@@ -90,6 +102,7 @@ public class LearningView extends JFrame {
         container.add(panel,"North");
         resetOptions(); //Refreshes the options to grey boxes required.
         resetScale();
+        resetGrid();
 	}
 	
 	/**
@@ -147,6 +160,7 @@ public class LearningView extends JFrame {
 		tabbedPane = new JTabbedPane();
 		tabbedPane.addTab("Train & Predict", addCombinationSettingHelp());
 		tabbedPane.addTab("Scale Data", addScaleSettings());
+		tabbedPane.addTab("Grid Search", addGridSettings());
 		parent.add(tabbedPane);
 	}
 	
@@ -204,6 +218,68 @@ public class LearningView extends JFrame {
 		return panel;
 	}
 	
+	/**
+	 * Builds the grid search tab. C and gamma are searched over powers of 2, 
+	 * the other parameters over comma separated values; a blank field keeps 
+	 * the value set in the train tab. All other settings are taken from the 
+	 * train tab. Successive halving tries all points on a small part of the 
+	 * data and only the better half of them on twice as much, until the 
+	 * last ones are tried on all of it.
+	 * 
+	 * @return the grid search settings panel with all components.
+	 */
+	private JPanel addGridSettings() {
+		JPanel panel = new JPanel();
+		panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+		
+		//Sub panels
+		JPanel panel1 = new JPanel();
+		panel1.setLayout(new FlowLayout(FlowLayout.LEADING));
+		JPanel panel2 = new JPanel();
+		panel2.setLayout(new FlowLayout(FlowLayout.LEADING));
+		JPanel panel3 = new JPanel();
+		panel3.setLayout(new FlowLayout(FlowLayout.LEADING));
+		JPanel panel4 = new JPanel();
+		panel4.setLayout(new FlowLayout(FlowLayout.LEADING));
+		
+		panel1.add(new JLabel("log2 of cost (C) from:"));
+		panel1.add(costBegin = new JTextField(3));
+		panel1.add(new JLabel("to:"));
+		panel1.add(costEnd = new JTextField(3));
+		panel1.add(new JLabel("step:"));
+		panel1.add(costStep = new JTextField(3));
+		
+		panel2.add(new JLabel("log2 of gamma from:"));
+		panel2.add(gammaBegin = new JTextField(3));
+		panel2.add(new JLabel("to:"));
+		panel2.add(gammaEnd = new JTextField(3));
+		panel2.add(new JLabel("step:"));
+		panel2.add(gammaStep = new JTextField(3));
+		
+		panel3.add(new JLabel("Degrees:"));
+		panel3.add(degreeValues = new JTextField(8));
+		panel3.add(new JLabel("coef0s:"));
+		panel3.add(coef0Values = new JTextField(8));
+		panel3.add(new JLabel("nus:"));
+		panel3.add(nuValues = new JTextField(8));
+		panel3.add(new JLabel("Epsilons in loss function:"));
+		panel3.add(epsilonLossValues = new JTextField(8));
+		
+		panel4.add(new JLabel("n-fold cross validation:"));
+		panel4.add(gridFolds = new JTextField(3));
+		panel4.add(gridHalving = new JCheckBox("Successive halving"));
+		panel4.add(resetGrid = new JButton("Reset"));
+		panel4.add(gridSearch = new JButton("Search"));
+		
+		//Combining the subpanels
+		panel.add(panel1);
+		panel.add(panel2);
+		panel.add(panel3);
+		panel.add(panel4);
+		
+		return panel;
+	}
+	
 	/**
 	 * Adds combination of the SVM setting panel and the panel with the 
 	 * restrictions and help button.
@@ -311,6 +387,10 @@ public class LearningView extends JFrame {
         cacheSize = new JTextField(4);
         panel4.add(cacheSize);
         
+        panel4.add(new JLabel("Threads:"));
+        threads = new JTextField(2);
+        panel4.add(threads);
+        
         // Add the help and reset button.
         addResetHelp(panel4);
 		
@@ -456,6 +536,7 @@ public class LearningView extends JFrame {
         epsilonTolerance.setText("0.001");
         weight.setText("1");
         cacheSize.setText("100");
+        threads.setText("1");
         
         gamma.setText("");
         crossValidation.setText("");
@@ -476,6 +557,27 @@ public class LearningView extends JFrame {
 		return;
 	}
 	
+	/**
+	 * Resets all settings in the grid search tab, to the ranges used by 
+	 * LIBSVM's grid.py.
+	 */
+	public void resetGrid() {
+		costBegin.setText("-5");
+		costEnd.setText("15");
+		costStep.setText("2");
+		gammaBegin.setText("3");
+		gammaEnd.setText("-15");
+		gammaStep.setText("-2");
+		
+		degreeValues.setText("");
+		coef0Values.setText("");
+		nuValues.setText("");
+		epsilonLossValues.setText("");
+		gridFolds.setText("5");
+		gridHalving.setSelected(false);
+		return;
+	}
+	
 	/**
      * Allows for the SVM type selectors selection to trigger actions. Sets up 
      * an 
@@ -576,6 +678,26 @@ public class LearningView extends JFrame {
     public void predictListener(ActionListener p1) {
         predict.addActionListener(p1);
     }
+    
+    /**
+     * Allows for the grid search button to trigger actions. Sets up an 
+     * ActionListener with the passed in one.
+     * 
+     * @param p1 Given ActionListener for monitoring.
+     */
+    public void gridSearchListener(ActionListener p1) {
+        gridSearch.addActionListener(p1);
+    }
+    
+    /**
+     * Allows for the reset button in the grid search tab to trigger actions. 
+     * Sets up an ActionListener with the passed in one.
+     * 
+     * @param p1 Given ActionListener for monitoring.
+     */
+    public void resetGridListener(ActionListener p1) {
+        resetGrid.addActionListener(p1);
+    }
     	
 
     /**
@@ -631,6 +753,7 @@ public class LearningView extends JFrame {
         		+"nu : set the parameter nu of nu-SVC, one-class SVM, and nu-SVR (default 0.5)\n"
         		+"epsilon : set the epsilon in loss function of epsilon-SVR (default 0.1)\n"
         		+"cachesize : set cache memory size in MB (default 100)\n"
+        		+"threads : number of threads used to compute kernel columns and to train class pairs and folds (default 1)\n"
         		+"epsilon : set tolerance of termination criterion (default 0.001)\n"
         		+"shrinking : whether to use the shrinking heuristics, 0 or 1 (default 1)\n"
         		+"probability_estimates : whether to train a SVC or SVR model for probability estimates, 0 or 1 (default 0)\n"
@@ -728,6 +851,10 @@ public class LearningView extends JFrame {
     	return Double.parseDouble(cacheSize.getText());
     }
     
+    public int getThreads() throws NumberFormatException {
+    	return Integer.parseInt(threads.getText());
+    }
+    
     public double getEps() throws NumberFormatException {
     	return Double.parseDouble(epsilonTolerance.getText());
     }
@@ -859,4 +986,76 @@ public class LearningView extends JFrame {
     public void setScaleLoad(boolean b) {
     	scaleLoad.setSelected(b);
     }
+    
+    /*
+     * Grid search getters. Value lists are comma separated and give null when 
+     * left blank.
+     */
+    
+    public double[] getGridCost() throws NumberFormatException {
+    	return svm_grid.log2_range(Double.parseDouble(costBegin.getText()), 
+    			Double.parseDouble(costEnd.getText()), 
+    			Double.parseDouble(costStep.getText()));
+    }
+    
+    public double[] getGridGamma() throws NumberFormatException {
+    	return svm_grid.log2_range(Double.parseDouble(gammaBegin.getText()), 
+    			Double.parseDouble(gammaEnd.getText()), 
+    			Double.parseDouble(gammaStep.getText()));
+    }
+    
+    private static double[] parseValues(JTextField field) 
+    		throws NumberFormatException {
+    	if (field.getText().trim().equals("")) {
+    		return null;
+    	}
+    	String[] tokens = field.getText().split(",");
+    	double[] values = new double[tokens.length];
+    	for (int i = 0; i < tokens.length; ++i) {
+    		values[i] = Double.parseDouble(tokens[i].trim());
+    	}
+    	return values;
+    }
+    
+    public double[] getGridDegree() throws NumberFormatException {
+    	return parseValues(degreeValues);
+    }
+    
+    public double[] getGridCoef0() throws NumberFormatException {
+    	return parseValues(coef0Values);
+    }
+    
+    public double[] getGridNu() throws NumberFormatException {
+    	return parseValues(nuValues);
+    }
+    
+    public double[] getGridEpsilonLoss() throws NumberFormatException {
+    	return parseValues(epsilonLossValues);
+    }
+    
+    public int getGridFolds() throws NumberFormatException {
+    	return Integer.parseInt(gridFolds.getText());
+    }
+    
+    public boolean getGridHalving() {
+    	return gridHalving.isSelected();
+    }
+    
+    public void setGridSearchEnabled(boolean b) {
+    	gridSearch.setEnabled(b);
+    }
+    
+    /**
+     * Copies the searched parameters back into the train tab.
+     * 
+     * @param parameter parameter to show, usually the grid search result.
+     */
+    public void setParameters(svm_parameter parameter) {
+    	cost.setText(String.valueOf(parameter.C));
+    	gamma.setText(String.valueOf(parameter.gamma));
+    	degree.setText(String.valueOf(parameter.degree));
+    	coef0.setText(String.valueOf(parameter.coef0));
+    	nu.setText(String.valueOf(parameter.nu));
+    	epsilonLoss.setText(String.valueOf(parameter.p));
+    }
 }
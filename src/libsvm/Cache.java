@@ -0,0 +1,500 @@
+package libsvm;
+import java.nio.*;
+import java.util.*;
+
+//
+// Kernel Cache
+//
+// l is the number of total data items
+// size is the cache size limit in bytes
+//
+// get_data hands out a column to fill; backends that do not keep columns
+// as float[] copy the filled part back in put_data. Which column goes
+// when space runs out is up to the Cache_Policy.
+//
+abstract class Cache {
+	protected final int l;
+	protected final Cache_Policy policy;
+	long nr_hit, nr_miss, nr_evict;	// column requests served, filled, dropped
+	long peak_bytes;		// most memory held for columns
+
+	Cache(int l, int cache_policy)
+	{
+		this.l = l;
+		policy = Cache_Policy.create(l,cache_policy);
+	}
+
+	// request data [0,len)
+	// return some position p where [p,len) need to be filled
+	// (p >= len if nothing needs to be filled)
+	abstract int get_data(int index, float[][] data, int len);
+	void put_data(int index, float[] data, int begin, int end) {}
+	abstract void swap_index(int i, int j);
+
+	static Cache create(int l, long size, svm_parameter param)
+	{
+		if(param.cache_type == svm_parameter.OFF_HEAP)
+			return new Off_Heap_Cache(l,size,param.cache_policy);
+		else
+			return new Heap_Cache(l,size,param.cache_policy);
+	}
+}
+
+//
+// Eviction policies for the kernel cache
+//
+// Resident columns are linked in circular lists over their indices:
+// nodes [0,l) are columns and nodes [l,l+nr_list) the list heads, with
+// the least recently inserted column first. remove keeps what a policy
+// knows about a column, forget drops it once the column is evicted.
+//
+abstract class Cache_Policy {
+	protected final int l;
+	protected final int[] prev, next;
+	private final int nr_list;
+
+	Cache_Policy(int l, int nr_list)
+	{
+		this.l = l;
+		this.nr_list = nr_list;
+		prev = new int[l+nr_list];
+		next = new int[l+nr_list];
+		for(int k=l;k<l+nr_list;k++)
+			prev[k] = next[k] = k;
+	}
+
+	static Cache_Policy create(int l, int cache_policy)
+	{
+		switch(cache_policy)
+		{
+			case svm_parameter.SLRU:
+				return new SLRU_Policy(l);
+			case svm_parameter.LFU:
+				return new LFU_Policy(l);
+			default:
+				return new LRU_Policy(l);
+		}
+	}
+
+	protected void unlink(int c)
+	{
+		next[prev[c]] = next[c];
+		prev[next[c]] = prev[c];
+	}
+
+	protected void link_last(int c, int list)
+	{
+		int h = l+list;
+		next[c] = h;
+		prev[c] = prev[h];
+		next[prev[c]] = c;
+		prev[h] = c;
+	}
+
+	protected int first_of(int list)
+	{
+		int c = next[l+list];
+		return c < l ? c : -1;
+	}
+
+	// column index is used now; hit tells whether it was cached before
+	abstract void insert(int index, boolean hit);
+	void remove(int index) { unlink(index); }
+	void forget(int index) {}
+	void swap(int i, int j) {}	// exchange what is known about i and j
+
+	// the column to evict next, called only while some column is resident
+	abstract int victim();
+
+	// resident columns, in no particular order
+	int first()
+	{
+		for(int k=0;k<nr_list;k++)
+			if(first_of(k) >= 0)
+				return first_of(k);
+		return -1;
+	}
+
+	int next(int c)
+	{
+		int n = next[c];
+		while(n >= l)
+		{
+			int k = n-l+1;	// n closes list k-1, go on with list k
+			if(k == nr_list)
+				return -1;
+			n = next[l+k];
+		}
+		return n;
+	}
+}
+
+final class LRU_Policy extends Cache_Policy {
+	LRU_Policy(int l) { super(l,1); }
+
+	void insert(int index, boolean hit) { link_last(index,0); }
+
+	int victim() { return first_of(0); }
+}
+
+//
+// Segmented LRU: a column enters on probation and is protected from its
+// second use on. Only the probation list is evicted from while it is
+// not empty, so one-off columns cannot flush the hot core; the protected
+// list is held to 4/5 of the resident columns by demoting its oldest.
+//
+final class SLRU_Policy extends Cache_Policy {
+	private static final int PROBATION = 0, PROTECTED = 1;
+	private final boolean[] is_protected;
+	private int nr_resident, nr_protected;
+
+	SLRU_Policy(int l)
+	{
+		super(l,2);
+		is_protected = new boolean[l];
+	}
+
+	void insert(int index, boolean hit)
+	{
+		++nr_resident;
+		if(hit || is_protected[index])
+		{
+			is_protected[index] = true;
+			link_last(index,PROTECTED);
+			++nr_protected;
+			while(nr_protected > nr_resident*4/5)
+			{
+				int c = first_of(PROTECTED);
+				unlink(c);
+				is_protected[c] = false;
+				--nr_protected;
+				link_last(c,PROBATION);
+			}
+		}
+		else
+			link_last(index,PROBATION);
+	}
+
+	void remove(int index)
+	{
+		unlink(index);
+		--nr_resident;
+		if(is_protected[index])
+			--nr_protected;
+	}
+
+	void forget(int index) { is_protected[index] = false; }
+
+	void swap(int i, int j)
+	{
+		do {boolean tmp=is_protected[i]; is_protected[i]=is_protected[j]; is_protected[j]=tmp;} while(false);
+	}
+
+	int victim()
+	{
+		int c = first_of(PROBATION);
+		return c >= 0 ? c : first_of(PROTECTED);
+	}
+}
+
+//
+// Frequency aware: counts uses per column and evicts the least used of
+// the SAMPLE least recently used columns. Counts are halved every 8*l
+// uses so that columns which were hot early in the solve can age out.
+//
+final class LFU_Policy extends Cache_Policy {
+	private static final int SAMPLE = 8;
+	private final int[] freq;
+	private long nr_use;
+
+	LFU_Policy(int l)
+	{
+		super(l,1);
+		freq = new int[l];
+	}
+
+	void insert(int index, boolean hit)
+	{
+		if(hit)
+			++freq[index];
+		else if(freq[index] == 0)
+			freq[index] = 1;
+		link_last(index,0);
+
+		if(++nr_use >= 8L*l)
+		{
+			nr_use = 0;
+			for(int i=0;i<l;i++)
+				freq[i] >>= 1;
+		}
+	}
+
+	void forget(int index) { freq[index] = 0; }
+
+	void swap(int i, int j)
+	{
+		do {int tmp=freq[i]; freq[i]=freq[j]; freq[j]=tmp;} while(false);
+	}
+
+	int victim()
+	{
+		int best = first_of(0);
+		int c = best;
+		for(int k=1;k<SAMPLE;k++)
+		{
+			c = next[c];
+			if(c >= l) break;
+			if(freq[c] < freq[best])
+				best = c;
+		}
+		return best;
+	}
+}
+
+//
+// Columns as float[] on the Java heap, grown by reallocation
+//
+final class Heap_Cache extends Cache {
+	private long size;
+	private final long capacity;
+	private final class head_t
+	{
+		float[] data;
+		int len;		// data[0,len) is cached in this entry
+	}
+	private final head_t[] head;
+
+	Heap_Cache(int l_, long size_, int cache_policy)
+	{
+		super(l_,cache_policy);
+		size = size_;
+		head = new head_t[l];
+		for(int i=0;i<l;i++) head[i] = new head_t();
+		size /= 4;
+		size -= l * (16/4);	// sizeof(head_t) == 16
+		size = Math.max(size, 2* (long) l);  // cache must be large enough for two columns
+		capacity = size;
+	}
+
+	private void evict(int index)
+	{
+		head_t old = head[index];
+		policy.remove(index);
+		policy.forget(index);
+		size += old.len;
+		old.data = null;
+		old.len = 0;
+	}
+
+	// java: simulate pointer using single-element array
+	int get_data(int index, float[][] data, int len)
+	{
+		head_t h = head[index];
+		boolean hit = h.len > 0;
+		if(hit) policy.remove(index);
+		int more = len - h.len;
+
+		if(more > 0)
+		{
+			++nr_miss;
+			// free old space
+			while(size < more)
+			{
+				evict(policy.victim());
+				++nr_evict;
+			}
+
+			// allocate new space
+			float[] new_data = new float[len];
+			if(h.data != null) System.arraycopy(h.data,0,new_data,0,h.len);
+			h.data = new_data;
+			size -= more;
+			peak_bytes = Math.max(peak_bytes,4*(capacity-size));
+			do {int tmp=h.len; h.len=len; len=tmp;} while(false);
+		}
+		else
+			++nr_hit;
+
+		policy.insert(index,hit);
+		data[0] = h.data;
+		return len;
+	}
+
+	void swap_index(int i, int j)
+	{
+		if(i==j) return;
+		
+		if(head[i].len > 0) policy.remove(i);
+		if(head[j].len > 0) policy.remove(j);
+		do {float[] tmp=head[i].data; head[i].data=head[j].data; head[j].data=tmp;} while(false);
+		do {int tmp=head[i].len; head[i].len=head[j].len; head[j].len=tmp;} while(false);
+		policy.swap(i,j);
+		if(head[i].len > 0) policy.insert(i,false);
+		if(head[j].len > 0) policy.insert(j,false);
+
+		if(i>j) do {int tmp=i; i=j; j=tmp;} while(false);
+		for(int c = policy.first(); c >= 0;)
+		{
+			head_t h = head[c];
+			int n = policy.next(c);
+			if(h.len > i)
+			{
+				if(h.len > j)
+					do {float tmp=h.data[i]; h.data[i]=h.data[j]; h.data[j]=tmp;} while(false);
+				else
+				{
+					// give up
+					evict(c);
+				}
+			}
+			c = n;
+		}
+	}
+}
+
+//
+// Columns in an off-heap arena
+//
+// The arena is cut into slabs of l floats, one per cached column, so a
+// column grows in place and an evicted slab is reused as is. Direct
+// memory is reserved CHUNK_BYTES at a time as slabs are first needed,
+// so a cache that never fills never takes its whole size. Nothing of
+// the cache lives on the Java heap but the two staging columns that
+// get_data copies into; unlike the heap cache, a hit therefore costs a
+// copy of the cached part of the column.
+//
+final class Off_Heap_Cache extends Cache {
+	private final int nr_slab;		// arena capacity in slabs
+	private final int slab_per_chunk;	// slabs reserved at a time
+	private static final long CHUNK_BYTES = 1<<24;
+	private FloatBuffer[] chunk;
+	private int nr_allocated;		// slabs handed out from the arena so far
+	private int[] free_slab;
+	private int nr_free;
+	private final int[] slab;		// slab of each column, or -1
+	private final int[] len;		// [0,len) of the slab is cached
+	private final float[][] buffer;
+	private int next_buffer;
+
+	Off_Heap_Cache(int l_, long size_, int cache_policy)
+	{
+		super(l_,cache_policy);
+		slab = new int[l];
+		len = new int[l];
+		Arrays.fill(slab,-1);
+		long slab_bytes = 4 * (long) Math.max(l,1);
+		nr_slab = (int)Math.min(Math.max(size_/slab_bytes, 2), l);	// at least two columns
+		slab_per_chunk = (int)Math.max(CHUNK_BYTES/slab_bytes, 1);
+		chunk = new FloatBuffer[(nr_slab+slab_per_chunk-1)/slab_per_chunk];
+		free_slab = new int[nr_slab];
+		buffer = new float[2][l];
+		next_buffer = 0;
+	}
+
+	private FloatBuffer chunk_of(int s)
+	{
+		return chunk[s/slab_per_chunk];
+	}
+
+	private int offset_of(int s)
+	{
+		return (s%slab_per_chunk)*l;
+	}
+
+	private void release(int index)
+	{
+		policy.remove(index);
+		policy.forget(index);
+		free_slab[nr_free++] = slab[index];
+		slab[index] = -1;
+		len[index] = 0;
+	}
+
+	private int allocate_slab()
+	{
+		if(nr_free == 0 && nr_allocated < nr_slab)
+		{
+			int s = nr_allocated++;
+			peak_bytes = 4L*l*nr_allocated;
+			int c = s/slab_per_chunk;
+			if(chunk[c] == null)
+			{
+				int n = Math.min(slab_per_chunk, nr_slab-c*slab_per_chunk);
+				chunk[c] = ByteBuffer.allocateDirect(n*4*l).order(ByteOrder.nativeOrder()).asFloatBuffer();
+			}
+			return s;
+		}
+		if(nr_free == 0)
+		{
+			// arena full: evict a column
+			release(policy.victim());
+			++nr_evict;
+		}
+		return free_slab[--nr_free];
+	}
+
+	int get_data(int index, float[][] data, int len_)
+	{
+		boolean hit = len[index] > 0;
+		if(hit) policy.remove(index);
+		if(slab[index] < 0) slab[index] = allocate_slab();
+
+		float[] buf = buffer[next_buffer];
+		next_buffer = 1 - next_buffer;
+		int start = len[index];
+		chunk_of(slab[index]).get(offset_of(slab[index]),buf,0,Math.min(start,len_));
+		if(len_ > start)
+		{
+			++nr_miss;
+			len[index] = len_;
+		}
+		else
+			++nr_hit;
+
+		policy.insert(index,hit);
+		data[0] = buf;
+		return start;
+	}
+
+	void put_data(int index, float[] data, int begin, int end)
+	{
+		int s = slab[index];
+		chunk_of(s).put(offset_of(s)+begin,data,begin,end-begin);
+	}
+
+	void swap_index(int i, int j)
+	{
+		if(i==j) return;
+
+		if(len[i] > 0) policy.remove(i);
+		if(len[j] > 0) policy.remove(j);
+		do {int tmp=slab[i]; slab[i]=slab[j]; slab[j]=tmp;} while(false);
+		do {int tmp=len[i]; len[i]=len[j]; len[j]=tmp;} while(false);
+		policy.swap(i,j);
+		if(len[i] > 0) policy.insert(i,false);
+		if(len[j] > 0) policy.insert(j,false);
+
+		if(i>j) do {int tmp=i; i=j; j=tmp;} while(false);
+		for(int c = policy.first(); c >= 0;)
+		{
+			int n = policy.next(c);
+			if(len[c] > i)
+			{
+				if(len[c] > j)
+				{
+					FloatBuffer b = chunk_of(slab[c]);
+					int o = offset_of(slab[c]);
+					float tmp = b.get(o+i);
+					b.put(o+i,b.get(o+j));
+					b.put(o+j,tmp);
+				}
+				else
+				{
+					// give up
+					release(c);
+				}
+			}
+			c = n;
+		}
+	}
+}
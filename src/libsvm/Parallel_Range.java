@@ -0,0 +1,59 @@
+package libsvm;
+import java.util.concurrent.*;
+
+//
+// Parallel loop over an index range
+//
+// run(begin,end) is called on disjoint pieces of at most grain indices,
+// on the shared pool of svm.thread_pool; invoke returns when all are done
+//
+abstract class Parallel_Range {
+	abstract void run(int begin, int end);
+
+	void invoke(int nr_thread, int begin, int end, int grain)
+	{
+		if(nr_thread <= 1 || end-begin <= grain)
+		{
+			run(begin,end);
+			return;
+		}
+		Task task = new Task(begin,end,grain,svm.thread_print.get());
+		if(ForkJoinTask.inForkJoinPool())
+			task.invoke();	// nested: join the pool we are already in
+		else
+			svm.thread_pool(nr_thread).invoke(task);
+	}
+
+	private final class Task extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int begin, end, grain;
+		private final transient svm_print_interface print;	// of the invoking thread
+
+		Task(int begin, int end, int grain, svm_print_interface print)
+		{
+			this.begin = begin;
+			this.end = end;
+			this.grain = grain;
+			this.print = print;
+		}
+
+		protected void compute()
+		{
+			if(end-begin <= grain)
+			{
+				svm_print_interface saved = svm.thread_print.get();
+				svm.thread_print.set(print);
+				try {
+					run(begin,end);
+				} finally {
+					svm.thread_print.set(saved);
+				}
+			}
+			else
+			{
+				int mid = (begin+end) >>> 1;
+				invokeAll(new Task(begin,mid,grain,print),new Task(mid,end,grain,print));
+			}
+		}
+	}
+}
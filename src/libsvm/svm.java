@@ -5,120 +5,11 @@
 
 package libsvm;
 import java.io.*;
+import java.lang.management.*;
 import java.util.*;
-
-//
-// Kernel Cache
-//
-// l is the number of total data items
-// size is the cache size limit in bytes
-//
-class Cache {
-	private final int l;
-	private long size;
-	private final class head_t
-	{
-		head_t prev, next;	// a cicular list
-		float[] data;
-		int len;		// data[0,len) is cached in this entry
-	}
-	private final head_t[] head;
-	private head_t lru_head;
-
-	Cache(int l_, long size_)
-	{
-		l = l_;
-		size = size_;
-		head = new head_t[l];
-		for(int i=0;i<l;i++) head[i] = new head_t();
-		size /= 4;
-		size -= l * (16/4);	// sizeof(head_t) == 16
-		size = Math.max(size, 2* (long) l);  // cache must be large enough for two columns
-		lru_head = new head_t();
-		lru_head.next = lru_head.prev = lru_head;
-	}
-
-	private void lru_delete(head_t h)
-	{
-		// delete from current location
-		h.prev.next = h.next;
-		h.next.prev = h.prev;
-	}
-
-	private void lru_insert(head_t h)
-	{
-		// insert to last position
-		h.next = lru_head;
-		h.prev = lru_head.prev;
-		h.prev.next = h;
-		h.next.prev = h;
-	}
-
-	// request data [0,len)
-	// return some position p where [p,len) need to be filled
-	// (p >= len if nothing needs to be filled)
-	// java: simulate pointer using single-element array
-	int get_data(int index, float[][] data, int len)
-	{
-		head_t h = head[index];
-		if(h.len > 0) lru_delete(h);
-		int more = len - h.len;
-
-		if(more > 0)
-		{
-			// free old space
-			while(size < more)
-			{
-				head_t old = lru_head.next;
-				lru_delete(old);
-				size += old.len;
-				old.data = null;
-				old.len = 0;
-			}
-
-			// allocate new space
-			float[] new_data = new float[len];
-			if(h.data != null) System.arraycopy(h.data,0,new_data,0,h.len);
-			h.data = new_data;
-			size -= more;
-			do {int tmp=h.len; h.len=len; len=tmp;} while(false);
-		}
-
-		lru_insert(h);
-		data[0] = h.data;
-		return len;
-	}
-
-	void swap_index(int i, int j)
-	{
-		if(i==j) return;
-		
-		if(head[i].len > 0) lru_delete(head[i]);
-		if(head[j].len > 0) lru_delete(head[j]);
-		do {float[] tmp=head[i].data; head[i].data=head[j].data; head[j].data=tmp;} while(false);
-		do {int tmp=head[i].len; head[i].len=head[j].len; head[j].len=tmp;} while(false);
-		if(head[i].len > 0) lru_insert(head[i]);
-		if(head[j].len > 0) lru_insert(head[j]);
-
-		if(i>j) do {int tmp=i; i=j; j=tmp;} while(false);
-		for(head_t h = lru_head.next; h!=lru_head; h=h.next)
-		{
-			if(h.len > i)
-			{
-				if(h.len > j)
-					do {float tmp=h.data[i]; h.data[i]=h.data[j]; h.data[j]=tmp;} while(false);
-				else
-				{
-					// give up
-					lru_delete(h);
-					size += h.len;
-					h.data = null;
-					h.len = 0;
-				}
-			}
-		}
-	}
-}
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import jdk.jfr.*;
 
 //
 // Kernel evaluation
@@ -131,28 +22,113 @@ abstract class QMatrix {
 	abstract float[] get_Q(int column, int len);
 	abstract double[] get_QD();
 	abstract void swap_index(int i, int j);
+	Cache get_cache() { return null; }
+	long take_kernel_eval() { return 0; }	// kernel evaluations since the last call
 };
 
 abstract class Kernel extends QMatrix {
-	private svm_node[][] x;
+	private final int[] x_index;
+	private final double[] x_value;
+	private final int[] x_start;
+	private final int[] x_end;
 	private final double[] x_square;
+	private final Gram_Cache gram;	// dot products kept across trainings, or null
+	private final int[] x_row;	// row of gram for each row
+	private final AtomicLong nr_eval = new AtomicLong();
 
 	// svm_parameter
 	private final int kernel_type;
 	private final int degree;
 	private final double gamma;
 	private final double coef0;
+	private final int nr_thread;
+
+	// columns are filled in pieces of FILL_GRAIN entries per thread;
+	// shorter columns are not worth the hand-off and stay serial
+	static final int FILL_GRAIN = 1024;
 
 	abstract float[] get_Q(int column, int len);
 	abstract double[] get_QD();
 
+	// store the Q entries (i,j) for j in [begin,end) into data; g is
+	// gram_row(i), fetched once per column by the caller
+	abstract void fill_range(int i, double[] g, float[] data, int begin, int end);
+
+	void fill_column(final int i, final float[] data, int start, int len)
+	{
+		final double[] g = gram_row(i);
+		new Parallel_Range()
+		{
+			void run(int begin, int end)
+			{
+				fill_range(i,g,data,begin,end);
+			}
+		}.invoke(nr_thread,start,len,FILL_GRAIN);
+		nr_eval.addAndGet(len-start);
+	}
+
+	long take_kernel_eval()
+	{
+		return nr_eval.getAndSet(0);
+	}
+
+	//
+	// index indirection (svm_parameter.index_indirection): rows and cached
+	// columns stay in their original order and swap_index only permutes
+	// index[], logical row -> original row, so shrinking costs O(1) per
+	// swap whatever the cache holds. A column is then cached in full,
+	// with NaN marking the entries not computed yet, and get_Q gathers the
+	// active rows out of it into buf.
+	//
+	float[] get_Q_indirect(Cache cache, final int[] index, final float[] buf, int i, int len)
+	{
+		float[][] data = new float[1][];
+		final int real_i = index[i];
+		int l = index.length;
+		int start;
+		if((start = cache.get_data(real_i,data,l)) < l)
+			Arrays.fill(data[0],start,l,Float.NaN);
+
+		final float[] col = data[0];
+		double[] row = null;
+		for(int j=0;j<len;j++)
+			if(col[index[j]] != col[index[j]])
+			{
+				row = gram_row(real_i);
+				break;
+			}
+		final double[] g = row;
+		new Parallel_Range()
+		{
+			void run(int begin, int end)
+			{
+				int n = 0;
+				for(int j=begin;j<end;j++)
+				{
+					int p = index[j];
+					if(col[p] != col[p])
+					{
+						fill_range(real_i,g,col,p,p+1);
+						++n;
+					}
+					buf[j] = col[p];
+				}
+				nr_eval.addAndGet(n);
+			}
+		}.invoke(nr_thread,0,len,FILL_GRAIN);
+		cache.put_data(real_i,col,0,l);
+		return buf;
+	}
+
 	void swap_index(int i, int j)
 	{
-		do {svm_node[] tmp=x[i]; x[i]=x[j]; x[j]=tmp;} while(false);
+		do {int tmp=x_start[i]; x_start[i]=x_start[j]; x_start[j]=tmp;} while(false);
+		do {int tmp=x_end[i]; x_end[i]=x_end[j]; x_end[j]=tmp;} while(false);
 		if(x_square != null) do {double tmp=x_square[i]; x_square[i]=x_square[j]; x_square[j]=tmp;} while(false);
+		if(x_row != null) do {int tmp=x_row[i]; x_row[i]=x_row[j]; x_row[j]=tmp;} while(false);
 	}
 
-	private static double powi(double base, int times)
+	static double powi(double base, int times)
 	{
 		double tmp = base, ret = 1.0;
 
@@ -164,41 +140,163 @@ abstract class Kernel extends QMatrix {
 		return ret;
 	}
 
-	double kernel_function(int i, int j)
+	// dot products of row i with every row of the gram cache, or null;
+	// passed to kernel_function(i,j,g) for the entries of one column
+	double[] gram_row(int i)
+	{
+		return gram == null ? null : gram.row(x_row[i],x_value,nr_thread);
+	}
+
+	// the kernel values (i,i) of the first l rows, counted at once
+	double[] diagonal(int l)
+	{
+		double[] d = new double[l];
+		for(int i=0;i<l;i++)
+			d[i] = kernel_function(i,i,null);
+		nr_eval.addAndGet(l);
+		return d;
+	}
+
+	double kernel_function(int i, int j, double[] g)
 	{
+		if(kernel_type == svm_parameter.PRECOMPUTED)
+			return x_value[x_start[i]+(int)(x_value[x_start[j]])];
+
+		double dot = g != null ? g[x_row[j]] : dot(i,j);
 		switch(kernel_type)
 		{
 			case svm_parameter.LINEAR:
-				return dot(x[i],x[j]);
+				return dot;
 			case svm_parameter.POLY:
-				return powi(gamma*dot(x[i],x[j])+coef0,degree);
+				return powi(gamma*dot+coef0,degree);
 			case svm_parameter.RBF:
-				return Math.exp(-gamma*(x_square[i]+x_square[j]-2*dot(x[i],x[j])));
+				return Math.exp(-gamma*(x_square[i]+x_square[j]-2*dot));
 			case svm_parameter.SIGMOID:
-				return Math.tanh(gamma*dot(x[i],x[j])+coef0);
-			case svm_parameter.PRECOMPUTED:
-				return x[i][(int)(x[j][0].value)].value;
+				return Math.tanh(gamma*dot+coef0);
 			default:
 				return 0;	// java
 		}
 	}
 
-	Kernel(int l, svm_node[][] x_, svm_parameter param)
+	Kernel(int l, svm_problem prob, svm_parameter param)
 	{
 		this.kernel_type = param.kernel_type;
 		this.degree = param.degree;
 		this.gamma = param.gamma;
 		this.coef0 = param.coef0;
+		this.nr_thread = param.nr_thread;
 
-		x = (svm_node[][])x_.clone();
+		// rows are shared with prob, only their order is private
+		x_index = prob.x_index;
+		x_value = prob.x_value;
+		x_start = (int[])prob.x_start.clone();
+		x_end = (int[])prob.x_end.clone();
 
 		if(kernel_type == svm_parameter.RBF)
 		{
 			x_square = new double[l];
 			for(int i=0;i<l;i++)
-				x_square[i] = dot(x[i],x[i]);
+				x_square[i] = dot(i,i);
 		}
 		else x_square = null;
+
+		Gram_Cache g = Gram_Cache.find(prob,param);
+		int[] r = g == null || !g.pays(l) ? null : g.rows_of(prob,l);
+		gram = r == null ? null : g;
+		x_row = r;
+	}
+
+	private double dot(int i, int j)
+	{
+		return dot(x_index,x_value,x_start[i],x_end[i],x_start[j],x_end[j]);
+	}
+
+	// dot product of rows [p,pend) and [q,qend), merging their sorted
+	// feature indices
+	static double dot(int[] x_index, double[] x_value, int p, int pend, int q, int qend)
+	{
+		if(x_index == null)
+			return dense_dot(x_value,p,x_value,q,pend-p);
+
+		double sum = 0;
+		while(p < pend && q < qend)
+		{
+			int ip = x_index[p];
+			int iq = x_index[q];
+			if(ip == iq)
+				sum += x_value[p++] * x_value[q++];
+			else
+			{
+				if(ip > iq)
+					++q;
+				else
+					++p;
+			}
+		}
+		return sum;
+	}
+
+	//
+	// dense rows: contiguous runs of n values, summed with independent
+	// accumulators so the loop pipelines instead of waiting on one sum
+	//
+	static double dense_dot(double[] x, int p, double[] y, int q, int n)
+	{
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int k = 0;
+		for(;k+4<=n;k+=4)
+		{
+			s0 += x[p+k] * y[q+k];
+			s1 += x[p+k+1] * y[q+k+1];
+			s2 += x[p+k+2] * y[q+k+2];
+			s3 += x[p+k+3] * y[q+k+3];
+		}
+		for(;k<n;k++)
+			s0 += x[p+k] * y[q+k];
+		return (s0+s1)+(s2+s3);
+	}
+
+	static double dense_dist2(double[] x, int p, double[] y, int q, int n)
+	{
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int k = 0;
+		for(;k+4<=n;k+=4)
+		{
+			double d0 = x[p+k] - y[q+k];
+			double d1 = x[p+k+1] - y[q+k+1];
+			double d2 = x[p+k+2] - y[q+k+2];
+			double d3 = x[p+k+3] - y[q+k+3];
+			s0 += d0*d0;
+			s1 += d1*d1;
+			s2 += d2*d2;
+			s3 += d3*d3;
+		}
+		for(;k<n;k++)
+		{
+			double d = x[p+k] - y[q+k];
+			s0 += d*d;
+		}
+		return (s0+s1)+(s2+s3);
+	}
+
+	// x is a query scattered into x[0,n), x_extra the squared norm of its
+	// features beyond n; sv[start,start+n) is one dense support vector
+	static double k_function(double[] x, double x_extra, double[] sv, int start, int n,
+					svm_parameter param)
+	{
+		switch(param.kernel_type)
+		{
+			case svm_parameter.LINEAR:
+				return dense_dot(x,0,sv,start,n);
+			case svm_parameter.POLY:
+				return powi(param.gamma*dense_dot(x,0,sv,start,n)+param.coef0,param.degree);
+			case svm_parameter.RBF:
+				return Math.exp(-param.gamma*(dense_dist2(x,0,sv,start,n)+x_extra));
+			case svm_parameter.SIGMOID:
+				return Math.tanh(param.gamma*dense_dot(x,0,sv,start,n)+param.coef0);
+			default:
+				return 0;	// java
+		}
 	}
 
 	static double dot(svm_node[] x, svm_node[] y)
@@ -318,6 +416,7 @@ class Solver {
 	double[] G_bar;		// gradient, if we treat free variables as 0
 	int l;
 	boolean unshrink;	// XXX
+	svm_stats stats;
 	
 	static final double INF = java.lang.Double.POSITIVE_INFINITY;
 
@@ -345,6 +444,7 @@ class Solver {
 		double upper_bound_p;
 		double upper_bound_n;
 		double r;	// for Solver_NU
+		svm_stats stats;
 	}
 
 	void swap_index(int i, int j)
@@ -359,12 +459,36 @@ class Solver {
 		do {double tmp=G_bar[i]; G_bar[i]=G_bar[j]; G_bar[j]=tmp;} while(false);
 	}
 
+	// after Solve, swap Q back to the original order of its rows so that
+	// it can be solved again, with its cache, for another C
+	void unswap_Q()
+	{
+		int[] pos = new int[l];
+		for(int i=0;i<l;i++)
+			pos[active_set[i]] = i;
+		for(int i=0;i<l;i++)
+		{
+			int j = pos[i];
+			if(j != i)
+			{
+				Q.swap_index(i,j);
+				int k = active_set[i];
+				active_set[j] = k;
+				pos[k] = j;
+				active_set[i] = i;
+				pos[i] = i;
+			}
+		}
+	}
+
 	void reconstruct_gradient()
 	{
 		// reconstruct inactive elements of G from G_bar and free variables
 
 		if(active_size == l) return;
 
+		long start = System.nanoTime();
+		++stats.nr_reconstruct;
 		int i,j;
 		int nr_free = 0;
 
@@ -399,6 +523,7 @@ class Solver {
 						G[j] += alpha_i * Q_i[j];
 				}
 		}
+		stats.reconstruct_ns += System.nanoTime()-start;
 	}
 
 	void Solve(int l, QMatrix Q, double[] p_, byte[] y_,
@@ -414,6 +539,19 @@ class Solver {
 		this.Cn = Cn;
 		this.eps = eps;
 		this.unshrink = false;
+		stats = new svm_stats();
+		stats.nr_solve = 1;
+		Cache cache = Q.get_cache();
+		long nr_hit = 0, nr_miss = 0, nr_evict = 0;
+		if(cache != null)
+		{
+			nr_hit = cache.nr_hit;
+			nr_miss = cache.nr_miss;
+			nr_evict = cache.nr_evict;
+		}
+		long init_start = System.nanoTime();
+		Solve_Event event = new Solve_Event();
+		event.begin();
 
 		// initialize alpha_status
 		{
@@ -456,6 +594,8 @@ class Solver {
 
 		// optimization step
 
+		long iter_start = System.nanoTime();
+		stats.init_ns = iter_start-init_start;
 		int iter = 0;
 		int max_iter = Math.max(10000000, l>Integer.MAX_VALUE/100 ? Integer.MAX_VALUE : 100*l);
 		int counter = Math.min(l,1000)+1;
@@ -468,7 +608,23 @@ class Solver {
 			if(--counter == 0)
 			{
 				counter = Math.min(l,1000);
-				if(shrinking!=0) do_shrinking();
+				if(shrinking!=0)
+				{
+					Shrink_Event shrink = new Shrink_Event();
+					shrink.begin();
+					int size = active_size;
+					do_shrinking();
+					if(active_size < size)
+						++stats.nr_shrink;
+					shrink.end();
+					if(shrink.shouldCommit())
+					{
+						shrink.l = l;
+						shrink.active_before = size;
+						shrink.active_after = active_size;
+						shrink.commit();
+					}
+				}
 				svm.info(".");
 			}
 
@@ -666,6 +822,31 @@ class Solver {
 		si.upper_bound_p = Cp;
 		si.upper_bound_n = Cn;
 
+		stats.iter_ns = System.nanoTime()-iter_start-stats.reconstruct_ns;
+		stats.nr_iter = iter;
+		stats.nr_kernel_eval = Q.take_kernel_eval();
+		if(cache != null)
+		{
+			stats.nr_cache_hit = cache.nr_hit-nr_hit;
+			stats.nr_cache_miss = cache.nr_miss-nr_miss;
+			stats.nr_cache_evict = cache.nr_evict-nr_evict;
+			stats.peak_cache_bytes = cache.peak_bytes;
+		}
+		si.stats = stats;
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.l = l;
+			event.nr_iter = stats.nr_iter;
+			event.nr_kernel_eval = stats.nr_kernel_eval;
+			event.nr_cache_hit = stats.nr_cache_hit;
+			event.nr_cache_miss = stats.nr_cache_miss;
+			event.nr_cache_evict = stats.nr_cache_evict;
+			event.nr_shrink = stats.nr_shrink;
+			event.nr_reconstruct = stats.nr_reconstruct;
+			event.commit();
+		}
+
 		svm.info("\noptimization finished, #iter = "+iter+"\n");
 	}
 
@@ -1150,36 +1331,73 @@ class SVC_Q extends Kernel
 	private final byte[] y;
 	private final Cache cache;
 	private final double[] QD;
+	private final int[] index;	// with index_indirection only
+	private final float[][] buffer;
+	private int next_buffer;
 
 	SVC_Q(svm_problem prob, svm_parameter param, byte[] y_)
 	{
-		super(prob.l, prob.x, param);
+		super(prob.l, prob, param);
 		y = (byte[])y_.clone();
-		cache = new Cache(prob.l,(long)(param.cache_size*(1<<20)));
-		QD = new double[prob.l];
-		for(int i=0;i<prob.l;i++)
-			QD[i] = kernel_function(i,i);
+		cache = Cache.create(prob.l,(long)(param.cache_size*(1<<20)),param);
+		QD = diagonal(prob.l);
+		if(param.index_indirection == 1)
+		{
+			index = new int[prob.l];
+			for(int i=0;i<prob.l;i++)
+				index[i] = i;
+			buffer = new float[2][prob.l];
+		}
+		else
+		{
+			index = null;
+			buffer = null;
+		}
 	}
 
 	float[] get_Q(int i, int len)
 	{
+		if(index != null)
+		{
+			float[] buf = buffer[next_buffer];
+			next_buffer = 1 - next_buffer;
+			return get_Q_indirect(cache,index,buf,i,len);
+		}
+
 		float[][] data = new float[1][];
-		int start, j;
+		int start;
 		if((start = cache.get_data(i,data,len)) < len)
 		{
-			for(j=start;j<len;j++)
-				data[0][j] = (float)(y[i]*y[j]*kernel_function(i,j));
+			fill_column(i,data[0],start,len);
+			cache.put_data(i,data[0],start,len);
 		}
 		return data[0];
 	}
 
+	void fill_range(int i, double[] g, float[] data, int begin, int end)
+	{
+		for(int j=begin;j<end;j++)
+			data[j] = (float)(y[i]*y[j]*kernel_function(i,j,g));
+	}
+
 	double[] get_QD()
 	{
 		return QD;
 	}
 
+	Cache get_cache()
+	{
+		return cache;
+	}
+
 	void swap_index(int i, int j)
 	{
+		if(index != null)
+		{
+			do {int tmp=index[i]; index[i]=index[j]; index[j]=tmp;} while(false);
+			do {double tmp=QD[i]; QD[i]=QD[j]; QD[j]=tmp;} while(false);
+			return;
+		}
 		cache.swap_index(i,j);
 		super.swap_index(i,j);
 		do {byte tmp=y[i]; y[i]=y[j]; y[j]=tmp;} while(false);
@@ -1191,35 +1409,72 @@ class ONE_CLASS_Q extends Kernel
 {
 	private final Cache cache;
 	private final double[] QD;
+	private final int[] index;	// with index_indirection only
+	private final float[][] buffer;
+	private int next_buffer;
 
 	ONE_CLASS_Q(svm_problem prob, svm_parameter param)
 	{
-		super(prob.l, prob.x, param);
-		cache = new Cache(prob.l,(long)(param.cache_size*(1<<20)));
-		QD = new double[prob.l];
-		for(int i=0;i<prob.l;i++)
-			QD[i] = kernel_function(i,i);
+		super(prob.l, prob, param);
+		cache = Cache.create(prob.l,(long)(param.cache_size*(1<<20)),param);
+		QD = diagonal(prob.l);
+		if(param.index_indirection == 1)
+		{
+			index = new int[prob.l];
+			for(int i=0;i<prob.l;i++)
+				index[i] = i;
+			buffer = new float[2][prob.l];
+		}
+		else
+		{
+			index = null;
+			buffer = null;
+		}
 	}
 
 	float[] get_Q(int i, int len)
 	{
+		if(index != null)
+		{
+			float[] buf = buffer[next_buffer];
+			next_buffer = 1 - next_buffer;
+			return get_Q_indirect(cache,index,buf,i,len);
+		}
+
 		float[][] data = new float[1][];
-		int start, j;
+		int start;
 		if((start = cache.get_data(i,data,len)) < len)
 		{
-			for(j=start;j<len;j++)
-				data[0][j] = (float)kernel_function(i,j);
+			fill_column(i,data[0],start,len);
+			cache.put_data(i,data[0],start,len);
 		}
 		return data[0];
 	}
 
+	void fill_range(int i, double[] g, float[] data, int begin, int end)
+	{
+		for(int j=begin;j<end;j++)
+			data[j] = (float)kernel_function(i,j,g);
+	}
+
 	double[] get_QD()
 	{
 		return QD;
 	}
 
+	Cache get_cache()
+	{
+		return cache;
+	}
+
 	void swap_index(int i, int j)
 	{
+		if(index != null)
+		{
+			do {int tmp=index[i]; index[i]=index[j]; index[j]=tmp;} while(false);
+			do {double tmp=QD[i]; QD[i]=QD[j]; QD[j]=tmp;} while(false);
+			return;
+		}
 		cache.swap_index(i,j);
 		super.swap_index(i,j);
 		do {double tmp=QD[i]; QD[i]=QD[j]; QD[j]=tmp;} while(false);
@@ -1238,19 +1493,20 @@ class SVR_Q extends Kernel
 
 	SVR_Q(svm_problem prob, svm_parameter param)
 	{
-		super(prob.l, prob.x, param);
+		super(prob.l, prob, param);
 		l = prob.l;
-		cache = new Cache(l,(long)(param.cache_size*(1<<20)));
+		cache = Cache.create(l,(long)(param.cache_size*(1<<20)),param);
 		QD = new double[2*l];
 		sign = new byte[2*l];
 		index = new int[2*l];
+		double[] d = diagonal(l);
 		for(int k=0;k<l;k++)
 		{
 			sign[k] = 1;
 			sign[k+l] = -1;
 			index[k] = k;
 			index[k+l] = k;
-			QD[k] = kernel_function(k,k);
+			QD[k] = d[k];
 			QD[k+l] = QD[k];
 		}
 		buffer = new float[2][2*l];
@@ -1268,10 +1524,11 @@ class SVR_Q extends Kernel
 	{
 		float[][] data = new float[1][];
 		int j, real_i = index[i];
-		if(cache.get_data(real_i,data,l) < l)
+		int start;
+		if((start = cache.get_data(real_i,data,l)) < l)
 		{
-			for(j=0;j<l;j++)
-				data[0][j] = (float)kernel_function(real_i,j);
+			fill_column(real_i,data[0],start,l);
+			cache.put_data(real_i,data[0],start,l);
 		}
 
 		// reorder and copy
@@ -1283,77 +1540,493 @@ class SVR_Q extends Kernel
 		return buf;
 	}
 
+	void fill_range(int i, double[] g, float[] data, int begin, int end)
+	{
+		for(int j=begin;j<end;j++)
+			data[j] = (float)kernel_function(i,j,g);
+	}
+
 	double[] get_QD()
 	{
 		return QD;
 	}
+
+	Cache get_cache()
+	{
+		return cache;
+	}
 }
 
-public class svm {
-	//
-	// construct and solve various formulations
-	//
-	public static final int LIBSVM_VERSION=322; 
-	public static final Random rand = new Random();
+//
+// Dot products of the rows of a problem, kept across trainings on it
+//
+// LINEAR, POLY, RBF (through x_square) and SIGMOID kernel values are
+// functions of dot products, so once these are cached a search over
+// gamma, coef0 or degree pays only for the function. A cache belongs to
+// the rows of one problem, registered before its sub-problems and folds
+// train: it is found by the x_value array they all share, and a row by
+// its [x_start,x_end) slice of that array. Rows hold the dots of one row
+// with all others, in double so that kernel values come out exactly as
+// without the cache; when not all of them fit in gram_size MB, the row
+// computed first is dropped first, and only trainings on at least half
+// of the rows use the cache, as a row costs dots with all of them. Rows
+// are read without locking. The rows may be edited in place between
+// calls: register compares a fingerprint of their contents and starts
+// a new cache when they changed.
+//
+final class Gram_Cache {
+	private static final Map<double[],Gram_Cache> caches = new WeakHashMap<double[],Gram_Cache>();
 
-	private static svm_print_interface svm_print_stdout = new svm_print_interface()
+	private final int l;
+	private final int[] x_index;	// the key x_value is passed in, not kept
+	private final int[] x_start;
+	private final int[] x_end;
+	private final Integer[] order;	// rows by slice
+	private final AtomicReferenceArray<double[]> row;
+	private final int[] resident;	// rows held, the oldest at next once full
+	private int nr_resident, next;
+	private final long fingerprint;	// of the rows when the cache was made
+
+	private Gram_Cache(svm_problem prob, int max_row)
 	{
-		public void print(String s)
+		l = prob.l;
+		x_index = prob.x_index;
+		x_start = prob.x_start.clone();
+		x_end = prob.x_end.clone();
+		fingerprint = svm.fingerprint(prob);
+		order = new Integer[l];
+		for(int i=0;i<l;i++)
+			order[i] = i;
+		Arrays.sort(order,new Comparator<Integer>()
 		{
-			System.out.print(s);
-			System.out.flush();
-		}
-	};
-
-	private static svm_print_interface svm_print_string = svm_print_stdout;
+			public int compare(Integer a, Integer b)
+			{
+				return compare_slice(x_start[a],x_end[a],a,b);
+			}
+		});
+		row = new AtomicReferenceArray<double[]>(l);
+		resident = new int[max_row];
+	}
 
-	static void info(String s) 
+	private static boolean applies(svm_parameter param)
 	{
-		svm_print_string.print(s);
+		return param.gram_size > 0 && param.kernel_type != svm_parameter.PRECOMPUTED;
 	}
 
-	private static void solve_c_svc(svm_problem prob, svm_parameter param,
-					double[] alpha, Solver.SolutionInfo si,
-					double Cp, double Cn)
+	// prob holds all rows that later trainings on its x_value will use
+	static void register(svm_problem prob, svm_parameter param)
 	{
-		int l = prob.l;
-		double[] minus_ones = new double[l];
-		byte[] y = new byte[l];
-
-		int i;
-
-		for(i=0;i<l;i++)
+		if(!applies(param) || prob.l == 0)
+			return;
+		long max_row = (long)(param.gram_size*(1<<20))/(8L*prob.l);
+		if(max_row < 1)
+			return;
+		synchronized(caches)
 		{
-			alpha[i] = 0;
-			minus_ones[i] = -1;
-			if(prob.y[i] > 0) y[i] = +1; else y[i] = -1;
+			// a subset of the rows of a cache comes from a training that
+			// registered, and checked, all of them
+			Gram_Cache c = caches.get(prob.x_value);
+			if(c == null || c.l < prob.l ||
+			   (c.l == prob.l && c.fingerprint != svm.fingerprint(prob)))
+				caches.put(prob.x_value,new Gram_Cache(prob,(int)Math.min(max_row,prob.l)));
 		}
+	}
 
-		Solver s = new Solver();
-		s.Solve(l, new SVC_Q(prob,param,y), minus_ones, y,
-			alpha, Cp, Cn, param.eps, si, param.shrinking);
+	// whether a training on sub_l of the rows should use the cache: unless
+	// all rows fit, one on few rows would compute far more dots than it
+	// reads, and drop rows before they are read again
+	boolean pays(int sub_l)
+	{
+		return resident.length >= l || (2L*sub_l >= l && resident.length >= sub_l);
+	}
 
-		double sum_alpha=0;
-		for(i=0;i<l;i++)
-			sum_alpha += alpha[i];
+	static Gram_Cache find(svm_problem prob, svm_parameter param)
+	{
+		if(!applies(param))
+			return null;
+		synchronized(caches)
+		{
+			return caches.get(prob.x_value);
+		}
+	}
 
-		if (Cp==Cn)
-			svm.info("nu = "+sum_alpha/(Cp*prob.l)+"\n");
+	private int compare_slice(int start, int end, int i, int k)
+	{
+		if(start != x_start[k])
+			return start < x_start[k] ? -1 : 1;
+		if(end != x_end[k])
+			return end < x_end[k] ? -1 : 1;
+		return i < 0 ? 0 : Integer.compare(i,k);
+	}
 
-		for(i=0;i<l;i++)
-			alpha[i] *= y[i];
+	// row of the cache for each of the first l rows of prob, or null if
+	// prob has rows the cache does not know
+	int[] rows_of(svm_problem prob, int l)
+	{
+		int[] r = new int[l];
+		for(int i=0;i<l;i++)
+		{
+			int lo = 0, hi = this.l-1, k = -1;
+			while(lo <= hi)
+			{
+				int mid = (lo+hi) >>> 1;
+				int c = compare_slice(prob.x_start[i],prob.x_end[i],-1,order[mid]);
+				if(c == 0) { k = order[mid]; break; }
+				if(c < 0) hi = mid-1; else lo = mid+1;
+			}
+			if(k < 0)
+				return null;
+			r[i] = k;
+		}
+		return r;
 	}
 
-	private static void solve_nu_svc(svm_problem prob, svm_parameter param,
-					double[] alpha, Solver.SolutionInfo si)
+	double[] row(final int r, final double[] x_value, int nr_thread)
 	{
-		int i;
-		int l = prob.l;
-		double nu = param.nu;
+		double[] g = row.get(r);
+		if(g != null)
+			return g;
 
-		byte[] y = new byte[l];
+		final double[] h = new double[l];
+		new Parallel_Range()
+		{
+			void run(int begin, int end)
+			{
+				for(int j=begin;j<end;j++)
+					h[j] = Kernel.dot(x_index,x_value,x_start[r],x_end[r],x_start[j],x_end[j]);
+			}
+		}.invoke(nr_thread,0,l,Kernel.FILL_GRAIN);
 
-		for(i=0;i<l;i++)
+		synchronized(this)
+		{
+			g = row.get(r);
+			if(g != null)
+				return g;
+			if(nr_resident < resident.length)
+				resident[nr_resident++] = r;
+			else
+			{
+				row.set(resident[next],null);
+				resident[next] = r;
+				next = (next+1)%resident.length;
+			}
+			row.set(r,h);
+		}
+		return h;
+	}
+}
+
+//
+// Alpha seeding: the decision functions of a model trained on all rows
+// of a problem give starting alphas to trainings on subsets of them,
+// such as the folds of svm_cross_validation. row maps each row being
+// trained to its row in the model's problem.
+//
+final class Alpha_Seed {
+	private final svm_model model;
+	private final int[] sv_of;	// SV of each row of the model's problem, or -1
+	private final int[] row;
+
+	Alpha_Seed(svm_model model, int l)
+	{
+		this.model = model;
+		sv_of = new int[l];
+		Arrays.fill(sv_of,-1);
+		for(int k=0;k<model.l;k++)
+			sv_of[model.sv_indices[k]-1] = k;
+		row = null;
+	}
+
+	private Alpha_Seed(Alpha_Seed seed, int[] row)
+	{
+		model = seed.model;
+		sv_of = seed.sv_of;
+		this.row = row;
+	}
+
+	Alpha_Seed for_rows(int[] row)
+	{
+		return new Alpha_Seed(this,row);
+	}
+
+	private int class_of(int label)
+	{
+		for(int c=0;c<model.nr_class;c++)
+			if(model.label[c] == label)
+				return c;
+		return -1;
+	}
+
+	// coefficient of row i in the decision function between the classes
+	// labelled self, which is the class of row i, and other; regression
+	// models have only one function and ignore both
+	double alpha(int i, int self, int other)
+	{
+		int k = sv_of[row[i]];
+		if(k < 0)
+			return 0;
+		if(model.label == null)
+			return model.sv_coef[0][k];
+		int c = class_of(self), d = class_of(other);
+		if(c < 0 || d < 0)
+			return 0;
+		return c < d ? model.sv_coef[d-1][k] : model.sv_coef[d][k];
+	}
+}
+
+//
+// Java Flight Recorder events
+//
+// One event per phase of training, cross validation and model I/O.
+// Fields are only filled in when an event is about to be recorded, so
+// with recording off an event costs next to nothing.
+//
+@Name("libsvm.Train")
+@Label("Train")
+@Category("LIBSVM")
+final class Train_Event extends Event {
+	@Label("SVM Type") String svm_type;
+	@Label("Kernel Type") String kernel_type;
+	@Label("Rows") int l;
+	@Label("Classes") int nr_class;
+	@Label("Values of C") int nr_C;
+	@Label("Support Vectors") long nr_sv;
+	@Label("Iterations") long nr_iter;
+}
+
+@Name("libsvm.Solve")
+@Label("Solve")
+@Category("LIBSVM")
+final class Solve_Event extends Event {
+	@Label("Variables") int l;
+	@Label("Iterations") long nr_iter;
+	@Label("Kernel Evaluations") long nr_kernel_eval;
+	@Label("Cache Hits") long nr_cache_hit;
+	@Label("Cache Misses") long nr_cache_miss;
+	@Label("Cache Evictions") long nr_cache_evict;
+	@Label("Shrinking Steps") long nr_shrink;
+	@Label("Gradient Reconstructions") long nr_reconstruct;
+}
+
+@Name("libsvm.Shrink")
+@Label("Shrink")
+@Category("LIBSVM")
+final class Shrink_Event extends Event {
+	@Label("Variables") int l;
+	@Label("Active Before") int active_before;
+	@Label("Active After") int active_after;
+}
+
+@Name("libsvm.CrossValidation")
+@Label("Cross Validation")
+@Category("LIBSVM")
+final class Cross_Validation_Event extends Event {
+	@Label("SVM Type") String svm_type;
+	@Label("Rows") int l;
+	@Label("Folds") int nr_fold;
+	@Label("Values of C") int nr_C;
+}
+
+@Name("libsvm.Probability")
+@Label("Probability Calibration")
+@Category("LIBSVM")
+final class Probability_Event extends Event {
+	@Label("Rows") int l;
+	@Label("Folds") int nr_fold;
+}
+
+@Name("libsvm.SaveModel")
+@Label("Save Model")
+@Category("LIBSVM")
+final class Save_Model_Event extends Event {
+	@Label("File") String file;
+	@Label("Classes") int nr_class;
+	@Label("Support Vectors") int l;
+}
+
+@Name("libsvm.LoadModel")
+@Label("Load Model")
+@Category("LIBSVM")
+final class Load_Model_Event extends Event {
+	@Label("Classes") int nr_class;
+	@Label("Support Vectors") int l;
+}
+
+public class svm {
+	//
+	// construct and solve various formulations
+	//
+	public static final int LIBSVM_VERSION=322; 
+	public static final Random rand = new Random();
+
+	private static svm_print_interface svm_print_stdout = new svm_print_interface()
+	{
+		public void print(String s)
+		{
+			System.out.print(s);
+			System.out.flush();
+		}
+	};
+
+	private static svm_print_interface svm_print_string = svm_print_stdout;
+
+	static final svm_print_interface svm_print_null = new svm_print_interface()
+	{
+		public void print(String s) {}
+	};
+
+	// output of the current thread in place of svm_print_string, or null;
+	// Parallel_Range hands it on to the tasks the thread starts
+	static final ThreadLocal<svm_print_interface> thread_print = new ThreadLocal<svm_print_interface>();
+
+	private static final Map<Integer,ForkJoinPool> thread_pools = new HashMap<Integer,ForkJoinPool>();
+
+	// pools are shared by size across models; their workers are daemons
+	static synchronized ForkJoinPool thread_pool(int nr_thread)
+	{
+		ForkJoinPool pool = thread_pools.get(nr_thread);
+		if(pool == null)
+		{
+			pool = new ForkJoinPool(nr_thread);
+			thread_pools.put(nr_thread,pool);
+		}
+		return pool;
+	}
+
+	// how many of nr_task independent trainings to run at once: at most
+	// nr_task_thread, and only as many as have room in the JVM for the
+	// task_bytes of data each one allocates and for their kernel caches,
+	// on the heap or in direct memory
+	static int task_slots(svm_parameter param, int nr_task, long task_bytes)
+	{
+		int n = Math.min(Math.max(param.nr_task_thread,1),nr_task);
+		Runtime rt = Runtime.getRuntime();
+		long free = rt.maxMemory()-(rt.totalMemory()-rt.freeMemory());
+		long cache_bytes = (long)(param.cache_size*(1<<20));
+		long need = task_bytes;
+		if(param.cache_type == svm_parameter.OFF_HEAP)
+			n = (int)Math.min(n,(max_direct_memory()-direct_memory_used())/Math.max(cache_bytes,1));
+		else
+			need += cache_bytes;
+		return (int)Math.max(Math.min(n,free/Math.max(need,1)),1);
+	}
+
+	// the direct memory limit: -XX:MaxDirectMemorySize, by default the
+	// maximum heap size
+	static long max_direct_memory()
+	{
+		long max = Runtime.getRuntime().maxMemory();
+		for(String arg : ManagementFactory.getRuntimeMXBean().getInputArguments())
+			if(arg.startsWith("-XX:MaxDirectMemorySize="))
+			{
+				String size = arg.substring(arg.indexOf('=')+1).toLowerCase();
+				int shift = 0;
+				switch(size.charAt(size.length()-1))
+				{
+					case 'k': shift = 10; break;
+					case 'm': shift = 20; break;
+					case 'g': shift = 30; break;
+					case 't': shift = 40; break;
+				}
+				if(shift > 0)
+					size = size.substring(0,size.length()-1);
+				try {
+					long bytes = Long.parseLong(size) << shift;
+					if(bytes > 0)
+						max = bytes;
+				} catch(NumberFormatException e) {}
+			}
+		return max;
+	}
+
+	static long direct_memory_used()
+	{
+		long used = 0;
+		for(BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+			if(pool.getName().equals("direct"))
+				used += pool.getMemoryUsed();
+		return used;
+	}
+
+	static void info(String s) 
+	{
+		svm_print_interface print = thread_print.get();
+		(print != null ? print : svm_print_string).print(s);
+	}
+
+	// seeded alphas come from a problem with more rows and no longer
+	// satisfy sum y[i]*alpha[i] = 0; scaling down the side with the larger
+	// sum restores it and keeps every alpha within its bounds
+	private static void balance_alpha(double[] alpha, byte[] y, int l)
+	{
+		int i;
+		double sum_p = 0, sum_n = 0;
+		for(i=0;i<l;i++)
+			if(y[i] > 0) sum_p += alpha[i]; else sum_n += alpha[i];
+		if(sum_p > sum_n)
+		{
+			for(i=0;i<l;i++)
+				if(y[i] > 0) alpha[i] *= sum_n/sum_p;
+		}
+		else if(sum_n > sum_p)
+		{
+			for(i=0;i<l;i++)
+				if(y[i] < 0) alpha[i] *= sum_p/sum_n;
+		}
+	}
+
+	// Q, if not null, holds the Q matrix of the problem between solves
+	// for different C: it is filled on the first and reused after
+	private static void solve_c_svc(svm_problem prob, svm_parameter param,
+					double[] alpha, Solver.SolutionInfo si,
+					double Cp, double Cn, QMatrix[] Q)
+	{
+		int l = prob.l;
+		double[] minus_ones = new double[l];
+		byte[] y = new byte[l];
+
+		int i;
+
+		// alpha is zero or a seed (see svm_train_one)
+		for(i=0;i<l;i++)
+		{
+			minus_ones[i] = -1;
+			if(prob.y[i] > 0) y[i] = +1; else y[i] = -1;
+			alpha[i] = Math.min(Math.abs(alpha[i]), y[i] > 0 ? Cp : Cn);
+		}
+		balance_alpha(alpha,y,l);
+
+		Solver s = new Solver();
+		QMatrix q = Q != null && Q[0] != null ? Q[0] : new SVC_Q(prob,param,y);
+		s.Solve(l, q, minus_ones, y,
+			alpha, Cp, Cn, param.eps, si, param.shrinking);
+		if(Q != null)
+		{
+			s.unswap_Q();
+			Q[0] = q;
+		}
+
+		double sum_alpha=0;
+		for(i=0;i<l;i++)
+			sum_alpha += alpha[i];
+
+		if (Cp==Cn)
+			svm.info("nu = "+sum_alpha/(Cp*prob.l)+"\n");
+
+		for(i=0;i<l;i++)
+			alpha[i] *= y[i];
+	}
+
+	private static void solve_nu_svc(svm_problem prob, svm_parameter param,
+					double[] alpha, Solver.SolutionInfo si)
+	{
+		int i;
+		int l = prob.l;
+		double nu = param.nu;
+
+		byte[] y = new byte[l];
+
+		for(i=0;i<l;i++)
 			if(prob.y[i]>0)
 				y[i] = +1;
 			else
@@ -1424,7 +2097,7 @@ public class svm {
 	}
 
 	private static void solve_epsilon_svr(svm_problem prob, svm_parameter param,
-					double[] alpha, Solver.SolutionInfo si)
+					double[] alpha, Solver.SolutionInfo si, QMatrix[] Q)
 	{
 		int l = prob.l;
 		double[] alpha2 = new double[2*l];
@@ -1432,20 +2105,28 @@ public class svm {
 		byte[] y = new byte[2*l];
 		int i;
 
+		// alpha is zero or a seed (see svm_train_one)
 		for(i=0;i<l;i++)
 		{
-			alpha2[i] = 0;
+			alpha2[i] = Math.min(Math.max(alpha[i],0), param.C);
 			linear_term[i] = param.p - prob.y[i];
 			y[i] = 1;
 
-			alpha2[i+l] = 0;
+			alpha2[i+l] = Math.min(Math.max(-alpha[i],0), param.C);
 			linear_term[i+l] = param.p + prob.y[i];
 			y[i+l] = -1;
 		}
+		balance_alpha(alpha2,y,2*l);
 
 		Solver s = new Solver();
-		s.Solve(2*l, new SVR_Q(prob,param), linear_term, y,
+		QMatrix q = Q != null && Q[0] != null ? Q[0] : new SVR_Q(prob,param);
+		s.Solve(2*l, q, linear_term, y,
 			alpha2, param.C, param.C, param.eps, si, param.shrinking);
+		if(Q != null)
+		{
+			s.unswap_Q();
+			Q[0] = q;
+		}
 
 		double sum_alpha = 0;
 		for(i=0;i<l;i++)
@@ -1496,18 +2177,26 @@ public class svm {
 	{
 		double[] alpha;
 		double rho;	
+		svm_stats stats;
 	};
 
+	// alpha0, if not null, warm starts C-SVC and epsilon-SVR from the
+	// given coefficients (y[i]*alpha[i], as in decision_function.alpha);
+	// Q, if not null, keeps their Q matrix for the next call on prob
 	static decision_function svm_train_one(
 		svm_problem prob, svm_parameter param,
-		double Cp, double Cn)
+		double Cp, double Cn, double[] alpha0, QMatrix[] Q)
 	{
 		double[] alpha = new double[prob.l];
+		if(alpha0 != null &&
+		   (param.svm_type == svm_parameter.C_SVC ||
+		    param.svm_type == svm_parameter.EPSILON_SVR))
+			System.arraycopy(alpha0,0,alpha,0,prob.l);
 		Solver.SolutionInfo si = new Solver.SolutionInfo();
 		switch(param.svm_type)
 		{
 			case svm_parameter.C_SVC:
-				solve_c_svc(prob,param,alpha,si,Cp,Cn);
+				solve_c_svc(prob,param,alpha,si,Cp,Cn,Q);
 				break;
 			case svm_parameter.NU_SVC:
 				solve_nu_svc(prob,param,alpha,si);
@@ -1516,7 +2205,7 @@ public class svm {
 				solve_one_class(prob,param,alpha,si);
 				break;
 			case svm_parameter.EPSILON_SVR:
-				solve_epsilon_svr(prob,param,alpha,si);
+				solve_epsilon_svr(prob,param,alpha,si,Q);
 				break;
 			case svm_parameter.NU_SVR:
 				solve_nu_svr(prob,param,alpha,si);
@@ -1552,6 +2241,7 @@ public class svm {
 		decision_function f = new decision_function();
 		f.alpha = alpha;
 		f.rho = si.rho;
+		f.stats = si.stats;
 		return f;
 	}
 
@@ -1669,7 +2359,7 @@ public class svm {
 		probAB[0]=A;probAB[1]=B;
 	}
 
-	private static double sigmoid_predict(double decision_value, double A, double B)
+	static double sigmoid_predict(double decision_value, double A, double B)
 	{
 		double fApB = decision_value*A+B;
 		if (fApB >= 0)
@@ -1678,13 +2368,12 @@ public class svm {
 			return 1.0/(1+Math.exp(fApB)) ;
 	}
 
-	// Method 2 from the multiclass_prob paper by Wu, Lin, and Weng
-	private static void multiclass_probability(int k, double[][] r, double[] p)
+	// Method 2 from the multiclass_prob paper by Wu, Lin, and Weng;
+	// Q[k][k] and Qp[k] are scratch space
+	static void multiclass_probability(int k, double[][] r, double[] p, double[][] Q, double[] Qp)
 	{
 		int t,j;
 		int iter = 0, max_iter=Math.max(100,k);
-		double[][] Q=new double[k][k];
-		double[] Qp=new double[k];
 		double pQp, eps=0.005/k;
 	
 		for (t=0;t<k;t++)
@@ -1738,98 +2427,125 @@ public class svm {
 			svm.info("Exceeds max_iter in multiclass_prob\n");
 	}
 
-	// Cross-validation decision values for probability estimates
-	private static void svm_binary_svc_probability(svm_problem prob, svm_parameter param, double Cp, double Cn, double[] probAB)
+	// folds of the internal cross validation for probability estimates
+	private static int prob_fold(svm_parameter param)
 	{
-		int i;
-		int nr_fold = 5;
-		int[] perm = new int[prob.l];
-		double[] dec_values = new double[prob.l];
+		return param.nr_prob_fold == 0 ? 5 : param.nr_prob_fold;
+	}
 
-		// random shuffle
-		for(i=0;i<prob.l;i++) perm[i]=i;
-		for(i=0;i<prob.l;i++)
+	// random shuffle of [0,l)
+	private static int[] random_perm(Random rand, int l)
+	{
+		int i;
+		int[] perm = new int[l];
+		for(i=0;i<l;i++) perm[i]=i;
+		for(i=0;i<l;i++)
 		{
-			int j = i+rand.nextInt(prob.l-i);
+			int j = i+rand.nextInt(l-i);
 			do {int tmp=perm[i]; perm[i]=perm[j]; perm[j]=tmp;} while(false);
 		}
-		for(i=0;i<nr_fold;i++)
-		{
-			int begin = i*prob.l/nr_fold;
-			int end = (i+1)*prob.l/nr_fold;
-			int j,k;
-			svm_problem subprob = new svm_problem();
+		return perm;
+	}
 
-			subprob.l = prob.l-(end-begin);
-			subprob.x = new svm_node[subprob.l][];
-			subprob.y = new double[subprob.l];
-			
-			k=0;
-			for(j=0;j<begin;j++)
-			{
-				subprob.x[k] = prob.x[perm[j]];
-				subprob.y[k] = prob.y[perm[j]];
-				++k;
-			}
-			for(j=end;j<prob.l;j++)
-			{
-				subprob.x[k] = prob.x[perm[j]];
-				subprob.y[k] = prob.y[perm[j]];
-				++k;
-			}
-			int p_count=0,n_count=0;
-			for(j=0;j<k;j++)
-				if(subprob.y[j]>0)
-					p_count++;
-				else
-					n_count++;
-			
-			if(p_count==0 && n_count==0)
-				for(j=begin;j<end;j++)
-					dec_values[perm[j]] = 0;
-			else if(p_count > 0 && n_count == 0)
-				for(j=begin;j<end;j++)
-					dec_values[perm[j]] = 1;
-			else if(p_count == 0 && n_count > 0)
-				for(j=begin;j<end;j++)
-					dec_values[perm[j]] = -1;
-			else
+	// Cross-validation decision values for probability estimates
+	// java: the fold order perm (see random_perm) is drawn by the caller,
+	// so that pairs trained at once get the folds they get in sequence
+	private static void svm_binary_svc_probability(final svm_problem prob, svm_parameter param, double Cp, double Cn, final int[] perm, double[] probAB)
+	{
+		final int nr_fold = prob_fold(param);
+		final double[] dec_values = new double[prob.l];
+		Probability_Event event = new Probability_Event();
+		event.begin();
+
+		final svm_parameter subparam = (svm_parameter)param.clone();
+		subparam.probability=0;
+		subparam.C=1.0;
+		subparam.nr_weight=2;
+		subparam.weight_label = new int[2];
+		subparam.weight = new double[2];
+		subparam.weight_label[0]=+1;
+		subparam.weight_label[1]=-1;
+		subparam.weight[0]=Cp;
+		subparam.weight[1]=Cn;
+
+		// folds write disjoint parts of dec_values and train up to
+		// nr_task_thread at once
+		new Parallel_Range()
+		{
+			void run(int fold_begin, int fold_end)
 			{
-				svm_parameter subparam = (svm_parameter)param.clone();
-				subparam.probability=0;
-				subparam.C=1.0;
-				subparam.nr_weight=2;
-				subparam.weight_label = new int[2];
-				subparam.weight = new double[2];
-				subparam.weight_label[0]=+1;
-				subparam.weight_label[1]=-1;
-				subparam.weight[0]=Cp;
-				subparam.weight[1]=Cn;
-				svm_model submodel = svm_train(subprob,subparam);
-				for(j=begin;j<end;j++)
-				{
-					double[] dec_value=new double[1];
-					svm_predict_values(submodel,prob.x[perm[j]],dec_value);
-					dec_values[perm[j]]=dec_value[0];
-					// ensure +1 -1 order; reason not using CV subroutine
-					dec_values[perm[j]] *= submodel.label[0];
-				}		
+				for(int i=fold_begin;i<fold_end;i++)
+				{
+					int begin = i*prob.l/nr_fold;
+					int end = (i+1)*prob.l/nr_fold;
+					int j,k;
+					svm_problem subprob = csr_subproblem(prob,prob.l-(end-begin));
+					
+					k=0;
+					for(j=0;j<begin;j++)
+					{
+						csr_copy_row(prob,perm[j],subprob,k);
+						++k;
+					}
+					for(j=end;j<prob.l;j++)
+					{
+						csr_copy_row(prob,perm[j],subprob,k);
+						++k;
+					}
+					int p_count=0,n_count=0;
+					for(j=0;j<k;j++)
+						if(subprob.y[j]>0)
+							p_count++;
+						else
+							n_count++;
+					
+					if(p_count==0 && n_count==0)
+						for(j=begin;j<end;j++)
+							dec_values[perm[j]] = 0;
+					else if(p_count > 0 && n_count == 0)
+						for(j=begin;j<end;j++)
+							dec_values[perm[j]] = 1;
+					else if(p_count == 0 && n_count > 0)
+						for(j=begin;j<end;j++)
+							dec_values[perm[j]] = -1;
+					else
+					{
+						svm_model submodel = svm_train(subprob,subparam);
+						for(j=begin;j<end;j++)
+						{
+							double[] dec_value=new double[1];
+							svm_predict_values(submodel,csr_row(prob,perm[j]),dec_value);
+							dec_values[perm[j]]=dec_value[0];
+							// ensure +1 -1 order; reason not using CV subroutine
+							dec_values[perm[j]] *= submodel.label[0];
+						}		
+					}
+				}
 			}
-		}		
+		}.invoke(task_slots(param,nr_fold,80L*prob.l),0,nr_fold,1);
 		sigmoid_train(prob.l,dec_values,prob.y,probAB);
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.l = prob.l;
+			event.nr_fold = nr_fold;
+			event.commit();
+		}
 	}
 
 	// Return parameter of a Laplace distribution 
-	private static double svm_svr_probability(svm_problem prob, svm_parameter param)
+	private static double svm_svr_probability(svm_problem prob, svm_parameter param, Random rand)
 	{
 		int i;
-		int nr_fold = 5;
+		int nr_fold = prob_fold(param);
 		double[] ymv = new double[prob.l];
 		double mae = 0;
+		Probability_Event event = new Probability_Event();
+		event.begin();
 
 		svm_parameter newparam = (svm_parameter)param.clone();
 		newparam.probability = 0;
-		svm_cross_validation(prob,newparam,nr_fold,ymv);
+		svm_cross_validation(prob,newparam,nr_fold,ymv,rand);
 		for(i=0;i<prob.l;i++)
 		{
 			ymv[i]=prob.y[i]-ymv[i];
@@ -1845,10 +2561,531 @@ public class svm {
 			else 
 				mae+=Math.abs(ymv[i]);
 		mae /= (prob.l-count);
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.l = prob.l;
+			event.nr_fold = nr_fold;
+			event.commit();
+		}
 		svm.info("Prob. model for test data: target value = predicted value + z,\nz: Laplace distribution e^(-|z|/sigma)/(2sigma),sigma="+mae+"\n");
 		return mae;
 	}
 
+	// a hash of the nonzeros of the rows of prob, the same for all its
+	// forms, to tell rows edited in place from the rows they were
+	static long fingerprint(svm_problem prob)
+	{
+		long h = prob.l;
+		for(int i=0;i<prob.l;i++)
+		{
+			h = (h^i)*0x100000001b3L;
+			if(prob.x_start == null)
+				for(svm_node node : prob.x[i])
+					h = fingerprint(h,node.index,node.value);
+			else
+				for(int k=prob.x_start[i];k<prob.x_end[i];k++)
+					h = fingerprint(h,prob.x_index == null ? k-prob.x_start[i]+1 : prob.x_index[k],prob.x_value[k]);
+		}
+		return h;
+	}
+
+	private static long fingerprint(long h, int index, double value)
+	{
+		if(value == 0)
+			return h;
+		h = (h^index)*0x100000001b3L;
+		return (h^Double.doubleToLongBits(value))*0x100000001b3L;
+	}
+
+	// the rows of prob in the form training works on (csr_problem, then
+	// dense_problem); with a gram cache the conversion is kept for later
+	// calls, so that they find the cache of the same rows again, unless
+	// the rows were edited in place since
+	private static final class Converted
+	{
+		final svm_problem p;
+		final long fingerprint;		// of the rows p was converted from
+
+		Converted(svm_problem p, long fingerprint)
+		{
+			this.p = p;
+			this.fingerprint = fingerprint;
+		}
+	}
+	private static final Map<Object,Converted> converted = new WeakHashMap<Object,Converted>();
+
+	static svm_problem train_problem(svm_problem prob, svm_parameter param)
+	{
+		if(param.gram_size <= 0 || param.kernel_type == svm_parameter.PRECOMPUTED)
+			return dense_problem(csr_problem(prob),param);
+
+		Object key = prob.x_start != null ? prob.x_start : prob.x;
+		Converted c;
+		synchronized(converted)
+		{
+			c = converted.get(key);
+		}
+		if(c != null && (c.p.l != prob.l || c.fingerprint != fingerprint(prob)))
+			c = null;
+		if(c == null)
+		{
+			svm_problem dense = dense_problem(csr_problem(prob),param);
+			if(dense.x_start == prob.x_start)
+				return prob;
+			c = new Converted(dense,fingerprint(prob));
+			synchronized(converted)
+			{
+				converted.put(key,c);
+			}
+		}
+		svm_problem p = c.p;
+		svm_problem q = new svm_problem();
+		q.l = p.l;
+		q.y = prob.y;
+		q.x_index = p.x_index;
+		q.x_value = p.x_value;
+		q.x_start = p.x_start;
+		q.x_end = p.x_end;
+		return q;
+	}
+
+	// java: problems given as svm_node[][] are adapted to the compressed
+	// sparse row form (see svm_problem) that training works on
+	static svm_problem csr_problem(svm_problem prob)
+	{
+		if(prob.x_start != null)
+			return prob;
+
+		int l = prob.l;
+		int nnz = 0;
+		int i;
+		for(i=0;i<l;i++)
+			nnz += prob.x[i].length;
+
+		svm_problem csr = new svm_problem();
+		csr.l = l;
+		csr.y = prob.y;
+		csr.x_index = new int[nnz];
+		csr.x_value = new double[nnz];
+		csr.x_start = new int[l];
+		csr.x_end = new int[l];
+		int k = 0;
+		for(i=0;i<l;i++)
+		{
+			svm_node[] xi = prob.x[i];
+			csr.x_start[i] = k;
+			for(int j=0;j<xi.length;j++)
+			{
+				csr.x_index[k] = xi[j].index;
+				csr.x_value[k] = xi[j].value;
+				++k;
+			}
+			csr.x_end[i] = k;
+		}
+		return csr;
+	}
+
+	// subproblem with room for l rows, sharing the feature storage of prob
+	static svm_problem csr_subproblem(svm_problem prob, int l)
+	{
+		svm_problem sub = new svm_problem();
+		sub.l = l;
+		sub.y = new double[l];
+		sub.x_index = prob.x_index;
+		sub.x_value = prob.x_value;
+		sub.x_start = new int[l];
+		sub.x_end = new int[l];
+		return sub;
+	}
+
+	static void csr_copy_row(svm_problem from, int i, svm_problem to, int k)
+	{
+		to.x_start[k] = from.x_start[i];
+		to.x_end[k] = from.x_end[i];
+		to.y[k] = from.y[i];
+	}
+
+	// row i of a compressed problem as svm_node[], e.g. for a model's SV
+	static svm_node[] csr_row(svm_problem prob, int i)
+	{
+		int begin = prob.x_start[i];
+		int n = prob.x_end[i] - begin;
+		if(prob.x_index == null)
+		{
+			// dense row: keep the nonzeros only
+			int nnz = 0;
+			for(int k=0;k<n;k++)
+				if(prob.x_value[begin+k] != 0)
+					++nnz;
+			svm_node[] x = new svm_node[nnz];
+			int j = 0;
+			for(int k=0;k<n;k++)
+				if(prob.x_value[begin+k] != 0)
+				{
+					x[j] = new svm_node();
+					x[j].index = k+1;
+					x[j].value = prob.x_value[begin+k];
+					++j;
+				}
+			return x;
+		}
+		svm_node[] x = new svm_node[n];
+		for(int k=0;k<n;k++)
+		{
+			x[k] = new svm_node();
+			x[k].index = prob.x_index[begin+k];
+			x[k].value = prob.x_value[begin+k];
+		}
+		return x;
+	}
+
+	// dense storage pays off once it is no bigger than the sparse one,
+	// i.e. at least 2/3 of the n features of each row are nonzero
+	static boolean dense_pays(long nnz, int l, int n)
+	{
+		return n > 0 && (long)l*n <= Integer.MAX_VALUE && 2L*l*n <= 3*nnz;
+	}
+
+	// low-dimensional, nearly all nonzero problems are stored densely:
+	// x_index is null and entry k of a row is the value of feature k+1
+	static svm_problem dense_problem(svm_problem prob, svm_parameter param)
+	{
+		if(prob.x_index == null || param.kernel_type == svm_parameter.PRECOMPUTED)
+			return prob;
+
+		int l = prob.l;
+		int n = 0;
+		long nnz = 0;
+		int i;
+		for(i=0;i<l;i++)
+		{
+			nnz += prob.x_end[i] - prob.x_start[i];
+			for(int k=prob.x_start[i];k<prob.x_end[i];k++)
+			{
+				if(prob.x_index[k] < 1)
+					return prob;
+				n = Math.max(n,prob.x_index[k]);
+			}
+		}
+		if(!dense_pays(nnz,l,n))
+			return prob;
+
+		svm_problem dense = new svm_problem();
+		dense.l = l;
+		dense.y = prob.y;
+		dense.x_value = new double[l*n];
+		dense.x_start = new int[l];
+		dense.x_end = new int[l];
+		for(i=0;i<l;i++)
+		{
+			dense.x_start[i] = i*n;
+			dense.x_end[i] = (i+1)*n;
+			for(int k=prob.x_start[i];k<prob.x_end[i];k++)
+				dense.x_value[i*n+prob.x_index[k]-1] = prob.x_value[k];
+		}
+		return dense;
+	}
+
+	// keep a dense copy of the SVs when the model is dense enough;
+	// expanded models predict without their SVs
+	static void svm_densify_model(svm_model model)
+	{
+		model.predictor = null;
+		model.SV_dense = null;
+		model.SV_dim = 0;
+		if(model.param.kernel_type == svm_parameter.PRECOMPUTED || model.w != null)
+			return;
+
+		int l = model.l;
+		int n = 0;
+		long nnz = 0;
+		int i;
+		for(i=0;i<l;i++)
+		{
+			svm_node[] sv = model.SV[i];
+			nnz += sv.length;
+			for(int k=0;k<sv.length;k++)
+			{
+				if(sv[k].index < 1)
+					return;
+				n = Math.max(n,sv[k].index);
+			}
+		}
+		if(!dense_pays(nnz,l,n))
+			return;
+
+		double[] SV_dense = new double[l*n];
+		for(i=0;i<l;i++)
+		{
+			svm_node[] sv = model.SV[i];
+			for(int k=0;k<sv.length;k++)
+				SV_dense[i*n+sv[k].index-1] = sv[k].value;
+		}
+		model.SV_dense = SV_dense;
+		model.SV_dim = n;
+	}
+
+	// sparse models that are not densified or expanded keep an inverted
+	// index of their SVs, so that the dot products of a query with every
+	// SV take one pass over the postings of its nonzeros
+	static void svm_index_model(svm_model model)
+	{
+		model.predictor = null;
+		model.feature_start = null;
+		model.posting_sv = null;
+		model.posting_value = null;
+		if(model.param.kernel_type == svm_parameter.PRECOMPUTED || model.w != null || model.SV_dense != null)
+			return;
+
+		int l = model.l;
+		int n = 0;
+		long nnz = 0;
+		int i;
+		for(i=0;i<l;i++)
+		{
+			svm_node[] sv = model.SV[i];
+			nnz += sv.length;
+			for(int k=0;k<sv.length;k++)
+			{
+				if(sv[k].index < 1)
+					return;
+				n = Math.max(n,sv[k].index);
+			}
+		}
+		// the starts should not outweigh the postings
+		if(n == 0 || nnz > Integer.MAX_VALUE || n > 4*nnz)
+			return;
+
+		int[] feature_start = new int[n+1];
+		for(i=0;i<l;i++)
+		{
+			svm_node[] sv = model.SV[i];
+			for(int k=0;k<sv.length;k++)
+				++feature_start[sv[k].index];
+		}
+		for(int f=1;f<=n;f++)
+			feature_start[f] += feature_start[f-1];
+		int[] next = new int[n];
+		System.arraycopy(feature_start,0,next,0,n);
+		int[] posting_sv = new int[(int)nnz];
+		double[] posting_value = new double[(int)nnz];
+		for(i=0;i<l;i++)
+		{
+			svm_node[] sv = model.SV[i];
+			for(int k=0;k<sv.length;k++)
+			{
+				int p = next[sv[k].index-1]++;
+				posting_sv[p] = i;
+				posting_value[p] = sv[k].value;
+			}
+		}
+		model.feature_start = feature_start;
+		model.posting_sv = posting_sv;
+		model.posting_value = posting_value;
+	}
+
+	// squared norms of the SVs for RBF, or null: a prediction then takes
+	// one dot product per SV, |x-sv|^2 being |x|^2+|sv|^2-2x.sv
+	static double[] sv_norms(svm_model model)
+	{
+		if(model.param.kernel_type != svm_parameter.RBF)
+			return null;
+		double[] sv_norm = new double[model.l];
+		for(int i=0;i<model.l;i++)
+			sv_norm[i] = Kernel.dot(model.SV[i],model.SV[i]);
+		return sv_norm;
+	}
+
+	static void svm_norm_model(svm_model model)
+	{
+		model.predictor = null;
+		model.sv_norm = sv_norms(model);
+	}
+
+	// the kernel arithmetic of Kernel, for the other classes of libsvm
+	static double dot(svm_node[] x, svm_node[] y)
+	{
+		return Kernel.dot(x,y);
+	}
+
+	static double dot(int[] x_index, double[] x_value, int p, int pend, int q, int qend)
+	{
+		return Kernel.dot(x_index,x_value,p,pend,q,qend);
+	}
+
+	static double dense_dot(double[] x, int p, double[] y, int q, int n)
+	{
+		return Kernel.dense_dot(x,p,y,q,n);
+	}
+
+	static double powi(double base, int times)
+	{
+		return Kernel.powi(base,times);
+	}
+
+	static double k_function(svm_node[] x, svm_node[] y, svm_parameter param)
+	{
+		return Kernel.k_function(x,y,param);
+	}
+
+	static double k_function(double[] x, double x_extra, double[] sv, int start, int n,
+					svm_parameter param)
+	{
+		return Kernel.k_function(x,x_extra,sv,start,n,param);
+	}
+
+	// the Q matrix of C_SVC over prob, for filling its columns from
+	// outside svm.java as the solver does on a cache miss
+	static final class SVC_Columns
+	{
+		private final SVC_Q Q;
+
+		SVC_Columns(svm_problem prob, svm_parameter param, byte[] y)
+		{
+			Q = new SVC_Q(prob,param,y);
+		}
+
+		void fill_column(int i, float[] data, int start, int len)
+		{
+			Q.fill_column(i,data,start,len);
+		}
+	}
+
+	static int nr_decision(svm_model model)
+	{
+		if(model.param.svm_type == svm_parameter.ONE_CLASS ||
+		   model.param.svm_type == svm_parameter.EPSILON_SVR ||
+		   model.param.svm_type == svm_parameter.NU_SVR)
+			return 1;
+		return model.nr_class*(model.nr_class-1)/2;
+	}
+
+	// entry (r,c), r <= c, of an upper triangle of n features stored by
+	// rows is at triangle_row(r,n)+c
+	static int triangle_row(int r, int n)
+	{
+		return (int)((long)r*n-(long)r*(r+1)/2);
+	}
+
+	// adds coef[i] times the terms of SV[i], for SVs begin..end-1, to
+	// decision function p: SV[i] to w, SV[i]*SV[i]' to w2 and 1 to w0
+	private static void add_terms(svm_model model, int p, double[] coef, int begin, int end)
+	{
+		double[] w = model.w[p];
+		double[] w2 = model.w2 == null ? null : model.w2[p];
+		int n = model.w2_dim;
+		for(int i=begin;i<end;i++)
+		{
+			svm_node[] sv = model.SV[i];
+			model.w0[p] += coef[i];
+			for(int a=0;a<sv.length;a++)
+			{
+				double v = coef[i]*sv[a].value;
+				w[sv[a].index] += v;
+				if(w2 != null)
+				{
+					int r = sv[a].index-1;
+					int row = triangle_row(r,n)-1;
+					for(int b=0;b<sv.length;b++)
+						if(sv[b].index > r)
+							w2[row+sv[b].index] += v*sv[b].value;
+				}
+			}
+		}
+	}
+
+	private static void scale(double[] v, double a)
+	{
+		for(int i=0;i<v.length;i++)
+			v[i] *= a;
+	}
+
+	// An explicit feature map for linear models and polynomial ones of
+	// degree 1 or 2: with K(x,v) = (gamma*x.v+coef0)^2, a decision function
+	// sum coef[i]*K(x,SV[i]) - rho is x'*w2*x + w.x + w0 - rho for
+	//	w2 = gamma^2 * sum coef[i]*SV[i]*SV[i]'
+	//	w  = 2*gamma*coef0 * sum coef[i]*SV[i]
+	//	w0 = coef0^2 * sum coef[i]
+	// (w = sum coef[i]*SV[i] and w0 = 0 for a linear kernel). Its cost
+	// depends on the number of features instead of SVs; it is kept unless
+	// it would take more room than the SVs.
+	static void svm_expand_model(svm_model model)
+	{
+		model.predictor = null;
+		model.w = null;
+		model.w2 = null;
+		model.w2_dim = 0;
+		model.w0 = null;
+		svm_parameter param = model.param;
+		boolean poly = param.kernel_type == svm_parameter.POLY && (param.degree == 1 || param.degree == 2);
+		if(param.kernel_type != svm_parameter.LINEAR && !poly)
+			return;
+		boolean quadratic = poly && param.degree == 2;
+
+		int l = model.l;
+		int n = 0;
+		long nnz = 0;
+		int i;
+		for(i=0;i<l;i++)
+		{
+			svm_node[] sv = model.SV[i];
+			nnz += sv.length;
+			for(int k=0;k<sv.length;k++)
+			{
+				if(sv[k].index < 1)
+					return;
+				n = Math.max(n,sv[k].index);
+			}
+		}
+		int nr_decision = nr_decision(model);
+		long w2_size = quadratic ? (long)n*(n+1)/2 : 0;
+		if(w2_size > Integer.MAX_VALUE || nr_decision*(n+w2_size) > 4*nnz)
+			return;
+
+		model.w = new double[nr_decision][n+1];
+		model.w0 = new double[nr_decision];
+		if(quadratic)
+		{
+			model.w2 = new double[nr_decision][(int)w2_size];
+			model.w2_dim = n;
+		}
+		if(model.nSV == null)	// one-class SVM and regression
+			add_terms(model,0,model.sv_coef[0],0,l);
+		else
+		{
+			int nr_class = model.nr_class;
+			int[] start = new int[nr_class];
+			start[0] = 0;
+			for(i=1;i<nr_class;i++)
+				start[i] = start[i-1]+model.nSV[i-1];
+			int p = 0;
+			for(i=0;i<nr_class;i++)
+				for(int j=i+1;j<nr_class;j++)
+				{
+					add_terms(model,p,model.sv_coef[j-1],start[i],start[i]+model.nSV[i]);
+					add_terms(model,p,model.sv_coef[i],start[j],start[j]+model.nSV[j]);
+					p++;
+				}
+		}
+
+		double gamma = param.gamma, coef0 = param.coef0;
+		for(int p=0;p<nr_decision;p++)
+			if(!poly)
+				model.w0[p] = 0;
+			else if(!quadratic)
+			{
+				scale(model.w[p],gamma);
+				model.w0[p] *= coef0;
+			}
+			else
+			{
+				scale(model.w2[p],gamma*gamma);
+				scale(model.w[p],2*gamma*coef0);
+				model.w0[p] *= coef0*coef0;
+			}
+	}
+
 	// label: label name, start: begin of each class, count: #data of classes, perm: indices to the original data
 	// perm, length l, must be allocated before calling this subroutine
 	private static void svm_group_classes(svm_problem prob, int[] nr_class_ret, int[][] label_ret, int[][] start_ret, int[][] count_ret, int[] perm)
@@ -1934,49 +3171,127 @@ public class svm {
 	//
 	public static svm_model svm_train(svm_problem prob, svm_parameter param)
 	{
-		svm_model model = new svm_model();
-		model.param = param;
+		return svm_train(prob,param,rand,null);
+	}
+
+	// one model for each value of C, trained as a regularization path
+	// (see below); each value must be valid as param.C
+	public static svm_model[] svm_train_path(svm_problem prob, svm_parameter param, double[] C)
+	{
+		return svm_train(prob,param,C,rand,null);
+	}
+
+	// java: rand is passed down so that trainings run at once each draw
+	// from their own generator, seed warm starts the decision functions
+	// (see svm_cross_validation)
+	private static svm_model svm_train(svm_problem prob, svm_parameter param, Random rand, Alpha_Seed seed)
+	{
+		return svm_train(prob,param,new double[] {param.C},rand,seed)[0];
+	}
+
+	// indices of C in increasing order of C
+	private static int[] path_order(double[] C)
+	{
+		Integer[] order = new Integer[C.length];
+		for(int c=0;c<C.length;c++)
+			order[c] = c;
+		final double[] C_ = C;
+		Arrays.sort(order,new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				return Double.compare(C_[a],C_[b]);
+			}
+		});
+		int[] ret = new int[C.length];
+		for(int c=0;c<C.length;c++)
+			ret[c] = order[c];
+		return ret;
+	}
+
+	// one model for each value of C: every decision function is solved
+	// for the values in increasing order, C-SVC and epsilon-SVR from the
+	// alphas of the previous one and with the same Q matrix and cache
+	private static svm_model[] svm_train(svm_problem prob, final svm_parameter param, final double[] C, Random rand, final Alpha_Seed seed)
+	{
+		long start_time = System.nanoTime();
+		Train_Event event = new Train_Event();
+		event.begin();
+		prob = train_problem(prob,param);
+		Gram_Cache.register(prob,param);
+		final int nr_C = C.length;
+		final int[] order = path_order(C);
+		final svm_parameter[] path_param = new svm_parameter[nr_C];
+		svm_model[] models = new svm_model[nr_C];
+		for(int c=0;c<nr_C;c++)
+		{
+			if(C[c] == param.C)
+				path_param[c] = param;
+			else
+			{
+				path_param[c] = (svm_parameter)param.clone();
+				path_param[c].C = C[c];
+			}
+			models[c] = new svm_model();
+			models[c].param = path_param[c];
+		}
 
 		if(param.svm_type == svm_parameter.ONE_CLASS ||
 		   param.svm_type == svm_parameter.EPSILON_SVR ||
 		   param.svm_type == svm_parameter.NU_SVR)
 		{
 			// regression or one-class-svm
-			model.nr_class = 2;
-			model.label = null;
-			model.nSV = null;
-			model.probA = null; model.probB = null;
-			model.sv_coef = new double[1][];
-
-			if(param.probability == 1 &&
-			   (param.svm_type == svm_parameter.EPSILON_SVR ||
-			    param.svm_type == svm_parameter.NU_SVR))
+			QMatrix[] Q = nr_C > 1 ? new QMatrix[1] : null;
+			double[] alpha0 = null;
+			if(seed != null)
 			{
-				model.probA = new double[1];
-				model.probA[0] = svm_svr_probability(prob,param);
+				alpha0 = new double[prob.l];
+				for(int i=0;i<prob.l;i++)
+					alpha0[i] = seed.alpha(i,0,0);
 			}
 
-			decision_function f = svm_train_one(prob,param,0,0);
-			model.rho = new double[1];
-			model.rho[0] = f.rho;
-
-			int nSV = 0;
-			int i;
-			for(i=0;i<prob.l;i++)
-				if(Math.abs(f.alpha[i]) > 0) ++nSV;
-			model.l = nSV;
-			model.SV = new svm_node[nSV][];
-			model.sv_coef[0] = new double[nSV];
-			model.sv_indices = new int[nSV];
-			int j = 0;
-			for(i=0;i<prob.l;i++)
-				if(Math.abs(f.alpha[i]) > 0)
+			for(int t=0;t<nr_C;t++)
+			{
+				svm_model model = models[order[t]];
+				model.nr_class = 2;
+				model.label = null;
+				model.nSV = null;
+				model.probA = null; model.probB = null;
+				model.sv_coef = new double[1][];
+
+				if(param.probability == 1 &&
+				   (param.svm_type == svm_parameter.EPSILON_SVR ||
+				    param.svm_type == svm_parameter.NU_SVR))
 				{
-					model.SV[j] = prob.x[i];
-					model.sv_coef[0][j] = f.alpha[i];
-					model.sv_indices[j] = i+1;
-					++j;
+					model.probA = new double[1];
+					model.probA[0] = svm_svr_probability(prob,model.param,rand);
 				}
+
+				decision_function f = svm_train_one(prob,model.param,0,0,alpha0,Q);
+				alpha0 = f.alpha;
+				model.rho = new double[1];
+				model.rho[0] = f.rho;
+				model.stats = new svm_stats();
+				model.stats.add(f.stats);
+
+				int nSV = 0;
+				int i;
+				for(i=0;i<prob.l;i++)
+					if(Math.abs(f.alpha[i]) > 0) ++nSV;
+				model.l = nSV;
+				model.SV = new svm_node[nSV][];
+				model.sv_coef[0] = new double[nSV];
+				model.sv_indices = new int[nSV];
+				int j = 0;
+				for(i=0;i<prob.l;i++)
+					if(Math.abs(f.alpha[i]) > 0)
+					{
+						model.SV[j] = csr_row(prob,i);
+						model.sv_coef[0][j] = f.alpha[i];
+						model.sv_indices[j] = i+1;
+						++j;
+					}
+			}
 		}
 		else
 		{
@@ -1986,195 +3301,297 @@ public class svm {
 			int[][] tmp_label = new int[1][];
 			int[][] tmp_start = new int[1][];
 			int[][] tmp_count = new int[1][];			
-			int[] perm = new int[l];
+			final int[] perm = new int[l];
 
 			// group training data of the same class
 			svm_group_classes(prob,tmp_nr_class,tmp_label,tmp_start,tmp_count,perm);
 			int nr_class = tmp_nr_class[0];			
-			int[] label = tmp_label[0];
-			int[] start = tmp_start[0];
-			int[] count = tmp_count[0];
+			final int[] label = tmp_label[0];
+			final int[] start = tmp_start[0];
+			final int[] count = tmp_count[0];
  			
 			if(nr_class == 1) 
 				svm.info("WARNING: training data in only one class. See README for details.\n");
 			
-			svm_node[][] x = new svm_node[l][];
+			final svm_problem x = csr_subproblem(prob,l);
 			int i;
 			for(i=0;i<l;i++)
-				x[i] = prob.x[perm[i]];
+				csr_copy_row(prob,perm[i],x,i);
 
 			// calculate weighted C
 
-			double[] weighted_C = new double[nr_class];
-			for(i=0;i<nr_class;i++)
-				weighted_C[i] = param.C;
-			for(i=0;i<param.nr_weight;i++)
+			final double[][] weighted_C = new double[nr_C][nr_class];
+			for(int c=0;c<nr_C;c++)
 			{
-				int j;
-				for(j=0;j<nr_class;j++)
-					if(param.weight_label[i] == label[j])
-						break;
-				if(j == nr_class)
-					System.err.print("WARNING: class label "+param.weight_label[i]+" specified in weight is not found\n");
-				else
-					weighted_C[j] *= param.weight[i];
+				for(i=0;i<nr_class;i++)
+					weighted_C[c][i] = C[c];
+				for(i=0;i<param.nr_weight;i++)
+				{
+					int j;
+					for(j=0;j<nr_class;j++)
+						if(param.weight_label[i] == label[j])
+							break;
+					if(j == nr_class)
+					{
+						if(c == 0)
+							System.err.print("WARNING: class label "+param.weight_label[i]+" specified in weight is not found\n");
+					}
+					else
+						weighted_C[c][j] *= param.weight[i];
+				}
 			}
 
-			// train k*(k-1)/2 models
+			// train k*(k-1)/2 models, up to nr_task_thread of them at once;
+			// a pair only writes its own slot p, so the model is the same
+			// as when they are trained in sequence
 
-			boolean[] nonzero = new boolean[l];
-			for(i=0;i<l;i++)
-				nonzero[i] = false;
-			decision_function[] f = new decision_function[nr_class*(nr_class-1)/2];
+			final int nr_pair = nr_class*(nr_class-1)/2;
+			final int[] pair_i = new int[nr_pair];
+			final int[] pair_j = new int[nr_pair];
+			final int[][] fold_perm = new int[nr_pair][];
+			final decision_function[][] f = new decision_function[nr_C][nr_pair];
 
-			double[] probA=null,probB=null;
+			final double[][] probA, probB;
 			if (param.probability == 1)
 			{
-				probA=new double[nr_class*(nr_class-1)/2];
-				probB=new double[nr_class*(nr_class-1)/2];
+				probA=new double[nr_C][nr_pair];
+				probB=new double[nr_C][nr_pair];
 			}
+			else
+				probA=probB=null;
 
 			int p = 0;
 			for(i=0;i<nr_class;i++)
 				for(int j=i+1;j<nr_class;j++)
 				{
-					svm_problem sub_prob = new svm_problem();
-					int si = start[i], sj = start[j];
-					int ci = count[i], cj = count[j];
-					sub_prob.l = ci+cj;
-					sub_prob.x = new svm_node[sub_prob.l][];
-					sub_prob.y = new double[sub_prob.l];
-					int k;
-					for(k=0;k<ci;k++)
-					{
-						sub_prob.x[k] = x[si+k];
-						sub_prob.y[k] = +1;
-					}
-					for(k=0;k<cj;k++)
-					{
-						sub_prob.x[ci+k] = x[sj+k];
-						sub_prob.y[ci+k] = -1;
-					}
-
+					pair_i[p] = i;
+					pair_j[p] = j;
 					if(param.probability == 1)
+						fold_perm[p] = random_perm(rand,count[i]+count[j]);
+					++p;
+				}
+
+			new Parallel_Range()
+			{
+				void run(int begin, int end)
+				{
+					for(int p=begin;p<end;p++)
 					{
-						double[] probAB=new double[2];
-						svm_binary_svc_probability(sub_prob,param,weighted_C[i],weighted_C[j],probAB);
-						probA[p]=probAB[0];
-						probB[p]=probAB[1];
+						int i = pair_i[p], j = pair_j[p];
+						int si = start[i], sj = start[j];
+						int ci = count[i], cj = count[j];
+						svm_problem sub_prob = csr_subproblem(x,ci+cj);
+						int k;
+						for(k=0;k<ci;k++)
+						{
+							csr_copy_row(x,si+k,sub_prob,k);
+							sub_prob.y[k] = +1;
+						}
+						for(k=0;k<cj;k++)
+						{
+							csr_copy_row(x,sj+k,sub_prob,ci+k);
+							sub_prob.y[ci+k] = -1;
+						}
+
+						double[] alpha0 = null;
+						if(seed != null)
+						{
+							alpha0 = new double[ci+cj];
+							for(k=0;k<ci;k++)
+								alpha0[k] = seed.alpha(perm[si+k],label[i],label[j]);
+							for(k=0;k<cj;k++)
+								alpha0[ci+k] = seed.alpha(perm[sj+k],label[j],label[i]);
+						}
+
+						QMatrix[] Q = nr_C > 1 ? new QMatrix[1] : null;
+						for(int t=0;t<nr_C;t++)
+						{
+							int c = order[t];
+							if(param.probability == 1)
+							{
+								double[] probAB=new double[2];
+								svm_binary_svc_probability(sub_prob,path_param[c],weighted_C[c][i],weighted_C[c][j],fold_perm[p],probAB);
+								probA[c][p]=probAB[0];
+								probB[c][p]=probAB[1];
+							}
+
+							f[c][p] = svm_train_one(sub_prob,path_param[c],weighted_C[c][i],weighted_C[c][j],alpha0,Q);
+							alpha0 = f[c][p].alpha;
+						}
 					}
+				}
+			}.invoke(task_slots(param,nr_pair,64L*l),0,nr_pair,1);
 
-					f[p] = svm_train_one(sub_prob,param,weighted_C[i],weighted_C[j]);
-					for(k=0;k<ci;k++)
-						if(!nonzero[si+k] && Math.abs(f[p].alpha[k]) > 0)
+			for(int c=0;c<nr_C;c++)
+			{
+				svm_model model = models[c];
+				boolean[] nonzero = new boolean[l];
+				for(i=0;i<l;i++)
+					nonzero[i] = false;
+				for(p=0;p<nr_pair;p++)
+				{
+					int si = start[pair_i[p]], sj = start[pair_j[p]];
+					int ci = count[pair_i[p]], cj = count[pair_j[p]];
+					for(int k=0;k<ci;k++)
+						if(!nonzero[si+k] && Math.abs(f[c][p].alpha[k]) > 0)
 							nonzero[si+k] = true;
-					for(k=0;k<cj;k++)
-						if(!nonzero[sj+k] && Math.abs(f[p].alpha[ci+k]) > 0)
+					for(int k=0;k<cj;k++)
+						if(!nonzero[sj+k] && Math.abs(f[c][p].alpha[ci+k]) > 0)
 							nonzero[sj+k] = true;
-					++p;
 				}
 
-			// build output
-
-			model.nr_class = nr_class;
+				// build output
 
-			model.label = new int[nr_class];
-			for(i=0;i<nr_class;i++)
-				model.label[i] = label[i];
+				model.nr_class = nr_class;
 
-			model.rho = new double[nr_class*(nr_class-1)/2];
-			for(i=0;i<nr_class*(nr_class-1)/2;i++)
-				model.rho[i] = f[i].rho;
+				model.label = new int[nr_class];
+				for(i=0;i<nr_class;i++)
+					model.label[i] = label[i];
 
-			if(param.probability == 1)
-			{
-				model.probA = new double[nr_class*(nr_class-1)/2];
-				model.probB = new double[nr_class*(nr_class-1)/2];
+				model.rho = new double[nr_class*(nr_class-1)/2];
+				model.stats = new svm_stats();
 				for(i=0;i<nr_class*(nr_class-1)/2;i++)
 				{
-					model.probA[i] = probA[i];
-					model.probB[i] = probB[i];
+					model.rho[i] = f[c][i].rho;
+					model.stats.add(f[c][i].stats);
 				}
-			}
-			else
-			{
-				model.probA=null;
-				model.probB=null;
-			}
 
-			int nnz = 0;
-			int[] nz_count = new int[nr_class];
-			model.nSV = new int[nr_class];
-			for(i=0;i<nr_class;i++)
-			{
-				int nSV = 0;
-				for(int j=0;j<count[i];j++)
-					if(nonzero[start[i]+j])
+				if(param.probability == 1)
+				{
+					model.probA = new double[nr_class*(nr_class-1)/2];
+					model.probB = new double[nr_class*(nr_class-1)/2];
+					for(i=0;i<nr_class*(nr_class-1)/2;i++)
 					{
-						++nSV;
-						++nnz;
+						model.probA[i] = probA[c][i];
+						model.probB[i] = probB[c][i];
 					}
-				model.nSV[i] = nSV;
-				nz_count[i] = nSV;
-			}
-
-			svm.info("Total nSV = "+nnz+"\n");
+				}
+				else
+				{
+					model.probA=null;
+					model.probB=null;
+				}
 
-			model.l = nnz;
-			model.SV = new svm_node[nnz][];
-			model.sv_indices = new int[nnz];
-			p = 0;
-			for(i=0;i<l;i++)
-				if(nonzero[i])
+				int nnz = 0;
+				int[] nz_count = new int[nr_class];
+				model.nSV = new int[nr_class];
+				for(i=0;i<nr_class;i++)
 				{
-					model.SV[p] = x[i];
-					model.sv_indices[p++] = perm[i] + 1;
+					int nSV = 0;
+					for(int j=0;j<count[i];j++)
+						if(nonzero[start[i]+j])
+						{
+							++nSV;
+							++nnz;
+						}
+					model.nSV[i] = nSV;
+					nz_count[i] = nSV;
 				}
 
-			int[] nz_start = new int[nr_class];
-			nz_start[0] = 0;
-			for(i=1;i<nr_class;i++)
-				nz_start[i] = nz_start[i-1]+nz_count[i-1];
+				svm.info("Total nSV = "+nnz+"\n");
 
-			model.sv_coef = new double[nr_class-1][];
-			for(i=0;i<nr_class-1;i++)
-				model.sv_coef[i] = new double[nnz];
+				model.l = nnz;
+				model.SV = new svm_node[nnz][];
+				model.sv_indices = new int[nnz];
+				p = 0;
+				for(i=0;i<l;i++)
+					if(nonzero[i])
+					{
+						model.SV[p] = csr_row(x,i);
+						model.sv_indices[p++] = perm[i] + 1;
+					}
 
-			p = 0;
-			for(i=0;i<nr_class;i++)
-				for(int j=i+1;j<nr_class;j++)
-				{
-					// classifier (i,j): coefficients with
-					// i are in sv_coef[j-1][nz_start[i]...],
-					// j are in sv_coef[i][nz_start[j]...]
-
-					int si = start[i];
-					int sj = start[j];
-					int ci = count[i];
-					int cj = count[j];
-
-					int q = nz_start[i];
-					int k;
-					for(k=0;k<ci;k++)
-						if(nonzero[si+k])
-							model.sv_coef[j-1][q++] = f[p].alpha[k];
-					q = nz_start[j];
-					for(k=0;k<cj;k++)
-						if(nonzero[sj+k])
-							model.sv_coef[i][q++] = f[p].alpha[ci+k];
-					++p;
-				}
+				int[] nz_start = new int[nr_class];
+				nz_start[0] = 0;
+				for(i=1;i<nr_class;i++)
+					nz_start[i] = nz_start[i-1]+nz_count[i-1];
+
+				model.sv_coef = new double[nr_class-1][];
+				for(i=0;i<nr_class-1;i++)
+					model.sv_coef[i] = new double[nnz];
+
+				p = 0;
+				for(i=0;i<nr_class;i++)
+					for(int j=i+1;j<nr_class;j++)
+					{
+						// classifier (i,j): coefficients with
+						// i are in sv_coef[j-1][nz_start[i]...],
+						// j are in sv_coef[i][nz_start[j]...]
+
+						int si = start[i];
+						int sj = start[j];
+						int ci = count[i];
+						int cj = count[j];
+
+						int q = nz_start[i];
+						int k;
+						for(k=0;k<ci;k++)
+							if(nonzero[si+k])
+								model.sv_coef[j-1][q++] = f[c][p].alpha[k];
+						q = nz_start[j];
+						for(k=0;k<cj;k++)
+							if(nonzero[sj+k])
+								model.sv_coef[i][q++] = f[c][p].alpha[ci+k];
+						++p;
+					}
+			}
 		}
-		return model;
+		long train_ns = System.nanoTime()-start_time;
+		for(int c=0;c<nr_C;c++)
+		{
+			svm_expand_model(models[c]);
+			svm_densify_model(models[c]);
+			svm_index_model(models[c]);
+			svm_norm_model(models[c]);
+			models[c].stats.train_ns = train_ns;
+		}
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.svm_type = svm_type_table[param.svm_type];
+			event.kernel_type = kernel_type_table[param.kernel_type];
+			event.l = prob.l;
+			event.nr_class = models[0].nr_class;
+			event.nr_C = nr_C;
+			for(int c=0;c<nr_C;c++)
+			{
+				event.nr_sv += models[c].l;
+				event.nr_iter += models[c].stats.nr_iter;
+			}
+			event.commit();
+		}
+		return models;
 	}
 	
 	// Stratified cross validation
 	public static void svm_cross_validation(svm_problem prob, svm_parameter param, int nr_fold, double[] target)
 	{
+		svm_cross_validation(prob,param,nr_fold,target,rand);
+	}
+
+	// target[c] for each value C[c], with the folds trained as
+	// regularization paths over C
+	public static void svm_cross_validation_path(svm_problem prob, svm_parameter param, double[] C, int nr_fold, double[][] target)
+	{
+		svm_cross_validation(prob,param,C,nr_fold,target,rand);
+	}
+
+	static void svm_cross_validation(svm_problem prob, svm_parameter param, int nr_fold, double[] target, Random rand)
+	{
+		svm_cross_validation(prob,param,new double[] {param.C},nr_fold,new double[][] {target},rand);
+	}
+
+	static void svm_cross_validation(svm_problem prob, final svm_parameter param, final double[] C, int nr_fold, final double[][] target, Random rand)
+	{
+		Cross_Validation_Event event = new Cross_Validation_Event();
+		event.begin();
+		final svm_problem cv_prob = train_problem(prob,param);
+		Gram_Cache.register(cv_prob,param);
+		prob = cv_prob;
 		int i;
-		int[] fold_start = new int[nr_fold+1];
-		int l = prob.l;
-		int[] perm = new int[l];
+		final int[] fold_start = new int[nr_fold+1];
+		final int l = prob.l;
+		final int[] perm = new int[l];
 		
 		// stratified cv may not give leave-one-out rate
 		// Each class to l folds -> some folds may have zero elements
@@ -2240,42 +3657,80 @@ public class svm {
 				fold_start[i]=i*l/nr_fold;
 		}
 
+		// train the folds, up to nr_task_thread of them at once; a fold
+		// that calibrates probabilities gets its own generator, seeded in
+		// fold order, so results depend on rand only and not on timing
+		final Random[] fold_rand = new Random[nr_fold];
 		for(i=0;i<nr_fold;i++)
+			fold_rand[i] = param.probability == 1 ? new Random(rand.nextLong()) : rand;
+
+		// with alpha_seeding, a model of all rows is trained first, at the
+		// smallest C, and each fold starts from its alphas for the rows
+		// the fold keeps
+		final Alpha_Seed seed;
+		if(param.alpha_seeding == 1 &&
+		   (param.svm_type == svm_parameter.C_SVC ||
+		    param.svm_type == svm_parameter.EPSILON_SVR))
 		{
-			int begin = fold_start[i];
-			int end = fold_start[i+1];
-			int j,k;
-			svm_problem subprob = new svm_problem();
-
-			subprob.l = l-(end-begin);
-			subprob.x = new svm_node[subprob.l][];
-			subprob.y = new double[subprob.l];
+			svm_parameter seed_param = (svm_parameter)param.clone();
+			seed_param.probability = 0;
+			seed_param.C = C[path_order(C)[0]];
+			seed = new Alpha_Seed(svm_train(prob,seed_param,rand,null),l);
+		}
+		else
+			seed = null;
 
-			k=0;
-			for(j=0;j<begin;j++)
-			{
-				subprob.x[k] = prob.x[perm[j]];
-				subprob.y[k] = prob.y[perm[j]];
-				++k;
-			}
-			for(j=end;j<l;j++)
-			{
-				subprob.x[k] = prob.x[perm[j]];
-				subprob.y[k] = prob.y[perm[j]];
-				++k;
-			}
-			svm_model submodel = svm_train(subprob,param);
-			if(param.probability==1 &&
-			   (param.svm_type == svm_parameter.C_SVC ||
-			    param.svm_type == svm_parameter.NU_SVC))
+		new Parallel_Range()
+		{
+			void run(int fold_begin, int fold_end)
 			{
-				double[] prob_estimates= new double[svm_get_nr_class(submodel)];
-				for(j=begin;j<end;j++)
-					target[perm[j]] = svm_predict_probability(submodel,prob.x[perm[j]],prob_estimates);
+				for(int i=fold_begin;i<fold_end;i++)
+				{
+					svm_problem prob = cv_prob;
+					int begin = fold_start[i];
+					int end = fold_start[i+1];
+					int j,k;
+					svm_problem subprob = csr_subproblem(prob,l-(end-begin));
+					int[] row = new int[l-(end-begin)];
+
+					k=0;
+					for(j=0;j<begin;j++)
+					{
+						csr_copy_row(prob,perm[j],subprob,k);
+						row[k] = perm[j];
+						++k;
+					}
+					for(j=end;j<l;j++)
+					{
+						csr_copy_row(prob,perm[j],subprob,k);
+						row[k] = perm[j];
+						++k;
+					}
+					svm_model[] submodel = svm_train(subprob,param,C,fold_rand[i],
+						seed == null ? null : seed.for_rows(row));
+					for(int c=0;c<C.length;c++)
+						if(param.probability==1 &&
+						   (param.svm_type == svm_parameter.C_SVC ||
+						    param.svm_type == svm_parameter.NU_SVC))
+						{
+							double[] prob_estimates= new double[svm_get_nr_class(submodel[c])];
+							for(j=begin;j<end;j++)
+								target[c][perm[j]] = svm_predict_probability(submodel[c],csr_row(prob,perm[j]),prob_estimates);
+						}
+						else
+							for(j=begin;j<end;j++)
+								target[c][perm[j]] = svm_predict(submodel[c],csr_row(prob,perm[j]));
+				}
 			}
-			else
-				for(j=begin;j<end;j++)
-					target[perm[j]] = svm_predict(submodel,prob.x[perm[j]]);
+		}.invoke(task_slots(param,nr_fold,80L*l),0,nr_fold,1);
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.svm_type = svm_type_table[param.svm_type];
+			event.l = l;
+			event.nr_fold = nr_fold;
+			event.nr_C = C.length;
+			event.commit();
 		}
 	}
 
@@ -2320,130 +3775,41 @@ public class svm {
 		}
 	}
 
-	public static double svm_predict_values(svm_model model, svm_node[] x, double[] dec_values)
+	// the predictor of a model, built on first use
+	static svm_predictor predictor(svm_model model)
 	{
-		int i;
-		if(model.param.svm_type == svm_parameter.ONE_CLASS ||
-		   model.param.svm_type == svm_parameter.EPSILON_SVR ||
-		   model.param.svm_type == svm_parameter.NU_SVR)
-		{
-			double[] sv_coef = model.sv_coef[0];
-			double sum = 0;
-			for(i=0;i<model.l;i++)
-				sum += sv_coef[i] * Kernel.k_function(x,model.SV[i],model.param);
-			sum -= model.rho[0];
-			dec_values[0] = sum;
-
-			if(model.param.svm_type == svm_parameter.ONE_CLASS)
-				return (sum>0)?1:-1;
-			else
-				return sum;
-		}
-		else
-		{
-			int nr_class = model.nr_class;
-			int l = model.l;
-		
-			double[] kvalue = new double[l];
-			for(i=0;i<l;i++)
-				kvalue[i] = Kernel.k_function(x,model.SV[i],model.param);
-
-			int[] start = new int[nr_class];
-			start[0] = 0;
-			for(i=1;i<nr_class;i++)
-				start[i] = start[i-1]+model.nSV[i-1];
-
-			int[] vote = new int[nr_class];
-			for(i=0;i<nr_class;i++)
-				vote[i] = 0;
-
-			int p=0;
-			for(i=0;i<nr_class;i++)
-				for(int j=i+1;j<nr_class;j++)
-				{
-					double sum = 0;
-					int si = start[i];
-					int sj = start[j];
-					int ci = model.nSV[i];
-					int cj = model.nSV[j];
-				
-					int k;
-					double[] coef1 = model.sv_coef[j-1];
-					double[] coef2 = model.sv_coef[i];
-					for(k=0;k<ci;k++)
-						sum += coef1[si+k] * kvalue[si+k];
-					for(k=0;k<cj;k++)
-						sum += coef2[sj+k] * kvalue[sj+k];
-					sum -= model.rho[p];
-					dec_values[p] = sum;					
-
-					if(dec_values[p] > 0)
-						++vote[i];
-					else
-						++vote[j];
-					p++;
-				}
-
-			int vote_max_idx = 0;
-			for(i=1;i<nr_class;i++)
-				if(vote[i] > vote[vote_max_idx])
-					vote_max_idx = i;
+		svm_predictor predictor = model.predictor;
+		if(predictor == null)
+			model.predictor = predictor = new svm_predictor(model);
+		return predictor;
+	}
 
-			return model.label[vote_max_idx];
-		}
+	public static double svm_predict_values(svm_model model, svm_node[] x, double[] dec_values)
+	{
+		return predictor(model).predict_values(x,dec_values);
 	}
 
 	public static double svm_predict(svm_model model, svm_node[] x)
 	{
-		int nr_class = model.nr_class;
-		double[] dec_values;
-		if(model.param.svm_type == svm_parameter.ONE_CLASS ||
-				model.param.svm_type == svm_parameter.EPSILON_SVR ||
-				model.param.svm_type == svm_parameter.NU_SVR)
-			dec_values = new double[1];
-		else
-			dec_values = new double[nr_class*(nr_class-1)/2];
-		double pred_result = svm_predict_values(model, x, dec_values);
-		return pred_result;
+		return predictor(model).predict(x);
 	}
 
 	public static double svm_predict_probability(svm_model model, svm_node[] x, double[] prob_estimates)
 	{
-		if ((model.param.svm_type == svm_parameter.C_SVC || model.param.svm_type == svm_parameter.NU_SVC) &&
-		    model.probA!=null && model.probB!=null)
-		{
-			int i;
-			int nr_class = model.nr_class;
-			double[] dec_values = new double[nr_class*(nr_class-1)/2];
-			svm_predict_values(model, x, dec_values);
+		return predictor(model).predict_probability(x,prob_estimates);
+	}
 
-			double min_prob=1e-7;
-			double[][] pairwise_prob=new double[nr_class][nr_class];
-			
-			int k=0;
-			for(i=0;i<nr_class;i++)
-				for(int j=i+1;j<nr_class;j++)
-				{
-					pairwise_prob[i][j]=Math.min(Math.max(sigmoid_predict(dec_values[k],model.probA[k],model.probB[k]),min_prob),1-min_prob);
-					pairwise_prob[j][i]=1-pairwise_prob[i][j];
-					k++;
-				}
-			if (nr_class == 2)
-			{
-				prob_estimates[0] = pairwise_prob[0][1];
-				prob_estimates[1] = pairwise_prob[1][0];
-			}
-			else
-				multiclass_probability(nr_class,pairwise_prob,prob_estimates);
+	// see svm_predictor.predict for batches
+	public static void svm_predict_batch(svm_model model, svm_node[][] x, double[] labels,
+		double[] dec_values, double[] prob_estimates, int nr_thread)
+	{
+		predictor(model).predict(x,labels,dec_values,prob_estimates,nr_thread);
+	}
 
-			int prob_max_idx = 0;
-			for(i=1;i<nr_class;i++)
-				if(prob_estimates[i] > prob_estimates[prob_max_idx])
-					prob_max_idx = i;
-			return model.label[prob_max_idx];
-		}
-		else 
-			return svm_predict(model, x);
+	public static void svm_predict_batch(svm_model model, svm_problem prob, double[] labels,
+		double[] dec_values, double[] prob_estimates, int nr_thread)
+	{
+		predictor(model).predict(prob,labels,dec_values,prob_estimates,nr_thread);
 	}
 
 	static final String svm_type_table[] =
@@ -2458,6 +3824,16 @@ public class svm {
 
 	public static void svm_save_model(String model_file_name, svm_model model) throws IOException
 	{
+		svm_save_model(model_file_name,model,false);
+	}
+
+	// with save_weights, the weights of a linear model are saved too, one
+	// "w index:value ..." line per decision function, and are read back
+	// instead of being summed up again; LIBSVM itself can't read them
+	public static void svm_save_model(String model_file_name, svm_model model, boolean save_weights) throws IOException
+	{
+		Save_Model_Event event = new Save_Model_Event();
+		event.begin();
 		DataOutputStream fp = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(model_file_name)));
 
 		svm_parameter param = model.param;
@@ -2520,6 +3896,17 @@ public class svm {
 			fp.writeBytes("\n");
 		}
 
+		if(save_weights && model.w != null && param.kernel_type == svm_parameter.LINEAR)
+			for(int p=0;p<model.w.length;p++)
+			{
+				double[] w = model.w[p];
+				fp.writeBytes("w");
+				for(int k=1;k<w.length;k++)
+					if(w[k] != 0)
+						fp.writeBytes(" "+k+":"+w[k]);
+				fp.writeBytes("\n");
+			}
+
 		fp.writeBytes("SV\n");
 		double[][] sv_coef = model.sv_coef;
 		svm_node[][] SV = model.SV;
@@ -2539,6 +3926,14 @@ public class svm {
 		}
 
 		fp.close();
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.file = model_file_name;
+			event.nr_class = model.nr_class;
+			event.l = model.l;
+			event.commit();
+		}
 	}
 
 	private static double atof(String s)
@@ -2651,6 +4046,28 @@ public class svm {
 					for(int i=0;i<n;i++)
 						model.nSV[i] = atoi(st.nextToken());
 				}
+				else if(cmd.startsWith("w"))
+				{
+					StringTokenizer st = new StringTokenizer(cmd.substring(1)," \t:");
+					int n = st.countTokens()/2;
+					int[] index = new int[n];
+					double[] value = new double[n];
+					int max_index = 0;
+					for(int i=0;i<n;i++)
+					{
+						index[i] = atoi(st.nextToken());
+						value[i] = atof(st.nextToken());
+						if(index[i] < 1)
+							return false;
+						max_index = Math.max(max_index,index[i]);
+					}
+					double[] w = new double[max_index+1];
+					for(int i=0;i<n;i++)
+						w[index[i]] = value[i];
+					int p = model.w == null ? 0 : model.w.length;
+					model.w = model.w == null ? new double[1][] : Arrays.copyOf(model.w,p+1);
+					model.w[p] = w;
+				}
 				else if(cmd.startsWith("SV"))
 				{
 					break;
@@ -2678,6 +4095,8 @@ public class svm {
 	{
 		// read parameters
 
+		Load_Model_Event event = new Load_Model_Event();
+		event.begin();
 		svm_model model = new svm_model();
 		model.rho = null;
 		model.probA = null;
@@ -2716,6 +4135,25 @@ public class svm {
 		}
 
 		fp.close();
+		if(model.w == null)
+			svm_expand_model(model);
+		else if(model.param.kernel_type != svm_parameter.LINEAR || model.w.length != nr_decision(model))
+		{
+			System.err.print("ERROR: failed to read model\n");
+			return null;
+		}
+		else
+			model.w0 = new double[model.w.length];
+		svm_densify_model(model);
+		svm_index_model(model);
+		svm_norm_model(model);
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.nr_class = model.nr_class;
+			event.l = model.l;
+			event.commit();
+		}
 		return model;
 	}
 
@@ -2775,6 +4213,35 @@ public class svm {
 		   param.shrinking != 1)
 			return "shrinking != 0 and shrinking != 1";
 
+		if(param.nr_thread < 0)
+			return "nr_thread < 0";
+
+		if(param.nr_task_thread < 0)
+			return "nr_task_thread < 0";
+
+		if(param.gram_size < 0)
+			return "gram_size < 0";
+
+		if(param.nr_prob_fold < 0 || param.nr_prob_fold == 1)
+			return "nr_prob_fold < 2";
+
+		if(param.alpha_seeding != 0 &&
+		   param.alpha_seeding != 1)
+			return "alpha_seeding != 0 and alpha_seeding != 1";
+
+		if(param.cache_type != svm_parameter.HEAP &&
+		   param.cache_type != svm_parameter.OFF_HEAP)
+			return "unknown cache type";
+
+		if(param.cache_policy != svm_parameter.LRU &&
+		   param.cache_policy != svm_parameter.SLRU &&
+		   param.cache_policy != svm_parameter.LFU)
+			return "unknown cache policy";
+
+		if(param.index_indirection != 0 &&
+		   param.index_indirection != 1)
+			return "index_indirection != 0 and index_indirection != 1";
+
 		if(param.probability != 0 &&
 		   param.probability != 1)
 			return "probability != 0 and probability != 1";
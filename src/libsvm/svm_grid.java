@@ -0,0 +1,305 @@
+package libsvm;
+import java.util.*;
+
+//
+// Parameter search by cross validation over a grid of points
+//
+// Every axis lists the values to try for one svm_parameter field; axes
+// left null keep the value of the base parameter. Points are cross
+// validated up to base.nr_task_thread at once, all on the same folds
+// and the same problem, and each score is handed to the listener by
+// the worker that computed it, as soon as the point is done. With
+// base.gram_size set, points share the dot products of the rows. C-SVC
+// and epsilon-SVR points that differ only in C are cross validated as
+// one regularization path, from the smallest C up. With quiet set, the
+// trainings of the search print nothing; other output is not affected.
+//
+public class svm_grid
+{
+	/* axis */
+	public static final int C = 0;
+	public static final int GAMMA = 1;
+	public static final int DEGREE = 2;
+	public static final int COEF0 = 3;
+	public static final int NU = 4;
+	public static final int P = 5;
+	public static final int NR_AXIS = 6;
+
+	public double[][] values = new double[NR_AXIS][];	// values to try on each axis, or null
+	public int nr_fold = 5;
+	public int halving = 0;	// >= 2 for a successive halving search, see below
+	public boolean quiet = false;	// no training output during the search
+
+	// begin, begin+step, ... up to end (inclusive, as in grid.py)
+	public static double[] range(double begin, double end, double step)
+	{
+		if(step == 0 || (end-begin)/step < 0)
+			return new double[] {begin};
+		int n = (int)Math.floor((end-begin)/step+1e-9)+1;
+		double[] v = new double[n];
+		for(int i=0;i<n;i++)
+			v[i] = begin+i*step;
+		return v;
+	}
+
+	// 2^x for x in range(begin,end,step), the usual grid for C and gamma
+	public static double[] log2_range(double begin, double end, double step)
+	{
+		double[] v = range(begin,end,step);
+		for(int i=0;i<v.length;i++)
+			v[i] = Math.pow(2,v[i]);
+		return v;
+	}
+
+	public int nr_point()
+	{
+		int n = 1;
+		for(int a=0;a<NR_AXIS;a++)
+			if(values[a] != null)
+				n *= values[a].length;
+		return n;
+	}
+
+	// point k of the grid, the last axis varying fastest
+	public svm_parameter point(svm_parameter base, int k)
+	{
+		svm_parameter param = (svm_parameter)base.clone();
+		for(int a=NR_AXIS-1;a>=0;a--)
+		{
+			if(values[a] == null)
+				continue;
+			double v = values[a][k%values[a].length];
+			k /= values[a].length;
+			switch(a)
+			{
+				case C: param.C = v; break;
+				case GAMMA: param.gamma = v; break;
+				case DEGREE: param.degree = (int)v; break;
+				case COEF0: param.coef0 = v; break;
+				case NU: param.nu = v; break;
+				case P: param.p = v; break;
+			}
+		}
+		return param;
+	}
+
+	public static boolean is_regression(svm_parameter param)
+	{
+		return param.svm_type == svm_parameter.EPSILON_SVR ||
+		       param.svm_type == svm_parameter.NU_SVR;
+	}
+
+	// mean squared error for regression, accuracy in % otherwise
+	public static double score(svm_problem prob, svm_parameter param, double[] target)
+	{
+		double s = 0;
+		for(int i=0;i<prob.l;i++)
+			if(is_regression(param))
+				s += (target[i]-prob.y[i])*(target[i]-prob.y[i]);
+			else if(target[i] == prob.y[i])
+				s += 100;
+		return s/prob.l;
+	}
+
+	// whether score a beats score b; NaN never does
+	private static boolean better(svm_parameter base, double a, double b)
+	{
+		if(Double.isNaN(a))
+			return false;
+		if(Double.isNaN(b))
+			return true;
+		return is_regression(base) ? a < b : a > b;
+	}
+
+	// the best point, the first one on ties; points svm_check_parameter
+	// rejects are reported with a score of NaN and never chosen
+	public svm_parameter search(svm_problem prob, svm_parameter base, svm_grid_interface listener)
+	{
+		svm_print_interface saved = svm.thread_print.get();
+		if(quiet)
+			svm.thread_print.set(svm.svm_print_null);
+		try {
+			svm_problem p = svm.train_problem(prob,base);
+			if(halving >= 2)
+				return search_halving(p,base,listener);
+			return search_grid(p,base,listener);
+		} finally {
+			svm.thread_print.set(saved);
+		}
+	}
+
+	private svm_parameter search_grid(final svm_problem p, final svm_parameter base, final svm_grid_interface listener)
+	{
+		final int nr_point = nr_point();
+		final double[] score = new double[nr_point];
+		final long seed = svm.rand.nextLong();
+		final int nr_C = values[C] != null &&
+			(base.svm_type == svm_parameter.C_SVC ||
+			 base.svm_type == svm_parameter.EPSILON_SVR) ? values[C].length : 1;
+		final int nr_path = nr_point/nr_C;
+
+		// C is the slowest axis: path m holds points m, m+nr_path, ...
+		new Parallel_Range()
+		{
+			void run(int begin, int end)
+			{
+				for(int m=begin;m<end;m++)
+				{
+					svm_parameter[] param = new svm_parameter[nr_C];
+					boolean[] valid = new boolean[nr_C];
+					double[] path_C = new double[nr_C];
+					int nr_valid = 0, first = -1;
+					for(int c=0;c<nr_C;c++)
+					{
+						param[c] = point(base,c*nr_path+m);
+						valid[c] = svm.svm_check_parameter(p,param[c]) == null;
+						if(valid[c])
+						{
+							if(first < 0)
+								first = c;
+							path_C[nr_valid++] = param[c].C;
+						}
+					}
+					double[][] target = new double[nr_valid][p.l];
+					if(nr_valid > 0)
+						svm.svm_cross_validation(p,param[first],Arrays.copyOf(path_C,nr_valid),nr_fold,target,new Random(seed));
+					int v = 0;
+					for(int c=0;c<nr_C;c++)
+					{
+						int k = c*nr_path+m;
+						if(!valid[c])
+							score[k] = Double.NaN;
+						else
+							score[k] = score(p,param[c],target[v++]);
+						if(listener != null)
+							listener.result(param[c],score[k]);
+					}
+				}
+			}
+		}.invoke(svm.task_slots(base,nr_path,80L*p.l*nr_C),0,nr_path,1);
+
+		int best = -1;
+		for(int k=0;k<nr_point;k++)
+			if(!Double.isNaN(score[k]) && (best < 0 || better(base,score[k],score[best])))
+				best = k;
+		return best < 0 ? null : point(base,best);
+	}
+
+	// rows in an order that keeps the classes in proportion in every
+	// prefix: shuffled, then each row placed at its rank within its class
+	// over the size of the class
+	private static int[] stratified_order(svm_problem prob, svm_parameter param, Random rand)
+	{
+		int l = prob.l;
+		int i;
+		int[] perm = new int[l];
+		for(i=0;i<l;i++) perm[i]=i;
+		for(i=0;i<l;i++)
+		{
+			int j = i+rand.nextInt(l-i);
+			do {int tmp=perm[i]; perm[i]=perm[j]; perm[j]=tmp;} while(false);
+		}
+
+		boolean regression = is_regression(param);
+		Map<Double,int[]> count = new HashMap<Double,int[]>();
+		for(i=0;i<l;i++)
+		{
+			Double label = regression ? 0.0 : prob.y[i];
+			int[] n = count.get(label);
+			if(n == null)
+				count.put(label,n = new int[2]);
+			n[0]++;
+		}
+		final double[] key = new double[l];
+		for(i=0;i<l;i++)
+		{
+			int[] n = count.get(regression ? 0.0 : prob.y[perm[i]]);
+			key[perm[i]] = (n[1]+0.5)/n[0];
+			n[1]++;
+		}
+
+		Integer[] order = new Integer[l];
+		for(i=0;i<l;i++)
+			order[i] = perm[i];
+		Arrays.sort(order,new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				return Double.compare(key[a],key[b]);
+			}
+		});
+		for(i=0;i<l;i++)
+			perm[i] = order[i];
+		return perm;
+	}
+
+	//
+	// Successive halving: all points are cross validated on a small
+	// stratified subset of the rows, the best 1/halving of them again on
+	// a subset halving times larger, and so on until the last few points
+	// are cross validated on all rows; the best of those wins. Every
+	// round is reported to the listener, and a point of each round may
+	// run at the same time as the others of the round.
+	//
+	private svm_parameter search_halving(final svm_problem p, final svm_parameter base, final svm_grid_interface listener)
+	{
+		final long seed = svm.rand.nextLong();
+		int[] order = stratified_order(p,base,new Random(seed));
+		int nr_round = 1;
+		for(int n=nr_point();n>halving;n=(n+halving-1)/halving)
+			nr_round++;
+
+		int nr_alive = nr_point();
+		Integer[] alive = new Integer[nr_alive];
+		for(int k=0;k<nr_alive;k++)
+			alive[k] = k;
+		final double[] score = new double[nr_alive];
+		for(int r=0;r<nr_round;r++)
+		{
+			int sub_l = p.l;
+			for(int t=r;t<nr_round-1;t++)
+				sub_l /= halving;
+			sub_l = Math.max(sub_l,Math.min(p.l,10*nr_fold));
+			final svm_problem sub = svm.csr_subproblem(p,sub_l);
+			for(int i=0;i<sub_l;i++)
+				svm.csr_copy_row(p,order[i],sub,i);
+
+			final Integer[] point = alive;
+			new Parallel_Range()
+			{
+				void run(int begin, int end)
+				{
+					for(int i=begin;i<end;i++)
+					{
+						int k = point[i];
+						svm_parameter param = point(base,k);
+						if(svm.svm_check_parameter(sub,param) != null)
+							score[k] = Double.NaN;
+						else
+						{
+							double[] target = new double[sub.l];
+							svm.svm_cross_validation(sub,param,nr_fold,target,new Random(seed));
+							score[k] = score(sub,param,target);
+						}
+						if(listener != null)
+							listener.result(param,score[k]);
+					}
+				}
+			}.invoke(svm.task_slots(base,nr_alive,80L*sub_l),0,nr_alive,1);
+
+			// best first, in grid order on ties
+			Arrays.sort(alive,new Comparator<Integer>()
+			{
+				public int compare(Integer a, Integer b)
+				{
+					if(better(base,score[a],score[b])) return -1;
+					if(better(base,score[b],score[a])) return 1;
+					return a.compareTo(b);
+				}
+			});
+			if(r < nr_round-1)
+				alive = Arrays.copyOf(alive,nr_alive = (nr_alive+halving-1)/halving);
+		}
+		return Double.isNaN(score[alive[0]]) ? null : point(base,alive[0]);
+	}
+}
@@ -0,0 +1,7 @@
+package libsvm;
+public interface svm_grid_interface
+{
+	// called for every point by the thread that cross validated it, so
+	// calls may come from several threads at once
+	public void result(svm_parameter param, double score);
+}
@@ -19,4 +19,32 @@ public class svm_model implements java.io.Serializable
 	public int[] label;		// label of each class (label[k])
 	public int[] nSV;		// number of SVs for each class (nSV[k])
 				// nSV[0] + nSV[1] + ... + nSV[k-1] = l
+
+	public svm_stats stats;		// what training took, null for loaded models
+
+	// dense copy of SV for low-dimensional dense models, built on train/load
+
+	double[] SV_dense;		// row i is SV_dense[i*SV_dim,(i+1)*SV_dim), or null
+	int SV_dim;
+
+	// inverted index of the SVs of sparse models, built on train/load:
+	// the SVs having feature f are posting_sv[feature_start[f-1],
+	// feature_start[f]), in order, with its values in posting_value
+
+	int[] feature_start;		// or null
+	int[] posting_sv;
+	double[] posting_value;
+
+	double[] sv_norm;		// squared norms of the SVs for RBF, built on train/load, or null
+
+	// explicit feature map of linear models and polynomial ones of degree
+	// 1 or 2, built on train/load: decision value p is
+	// x'*w2[p]*x + w[p].x + w0[p] - rho[p]
+
+	double[][] w;			// by feature, or null
+	double[][] w2;			// upper triangle of features 1..w2_dim by rows, or null
+	int w2_dim;
+	double[] w0;
+
+	transient svm_predictor predictor;	// see svm.predictor, or null
 };
@@ -15,6 +15,15 @@ public class svm_parameter implements Cloneable,java.io.Serializable
 	public static final int SIGMOID = 3;
 	public static final int PRECOMPUTED = 4;
 
+	/* cache_type */
+	public static final int HEAP = 0;
+	public static final int OFF_HEAP = 1;
+
+	/* cache_policy */
+	public static final int LRU = 0;
+	public static final int SLRU = 1;
+	public static final int LFU = 2;
+
 	public int svm_type;
 	public int kernel_type;
 	public int degree;	// for poly
@@ -23,6 +32,10 @@ public class svm_parameter implements Cloneable,java.io.Serializable
 
 	// these are for training only
 	public double cache_size; // in MB
+	public int cache_type;	// where kernel columns are kept
+	public int cache_policy;	// which cached column to evict first
+	public double gram_size;	// in MB, dot products kept across trainings on the same rows
+	public int index_indirection;	// shrink by permuting indices, not cached columns
 	public double eps;	// stopping criteria
 	public double C;	// for C_SVC, EPSILON_SVR and NU_SVR
 	public int nr_weight;		// for C_SVC
@@ -32,6 +45,10 @@ public class svm_parameter implements Cloneable,java.io.Serializable
 	public double p;	// for EPSILON_SVR
 	public int shrinking;	// use the shrinking heuristics
 	public int probability; // do probability estimates
+	public int nr_prob_fold;	// internal CV folds for probability estimates, 0 for 5
+	public int alpha_seeding;	// warm start CV folds from a model of all data
+	public int nr_thread;	// threads for kernel evaluation, 0 or 1 for serial
+	public int nr_task_thread;	// independent trainings run at once, 0 or 1 for serial
 
 	public Object clone() 
 	{
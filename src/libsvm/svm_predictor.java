@@ -0,0 +1,591 @@
+//
+// svm_predictor
+//
+// a model compiled for prediction: the layout of the decision functions
+// is worked out once, and the buffers of a single row prediction are
+// kept per thread, so it allocates nothing and one predictor may serve
+// any number of threads. It reads the model when built; a model changed
+// afterwards needs a new predictor. A batch of rows is spread over the
+// threads of a work-stealing pool in ranges, each with buffers of its
+// own that go away with it, so pool threads hold nothing between
+// batches; with dense SVs, each range computes the kernel values of a
+// tile of queries against a tile of SVs at a time, so that both stay in
+// cache. With sparse SVs, the dot products of a query with every SV
+// are summed over the postings of its nonzeros in the model's inverted
+// index.
+//
+package libsvm;
+public class svm_predictor
+{
+	private final svm_parameter param;
+	private final int l;
+	private final int nr_class;
+	private final int nr_decision;
+	private final boolean one_decision;	// one-class SVM and regression
+	private final int[] label;
+	private final int[] nSV;
+	private final int[] start;		// first SV of each class
+	private final double[][] sv_coef;
+	private final double[] rho;
+	private final double[] probA;
+	private final double[] probB;
+	private final svm_node[][] SV;
+	private final double[] SV_dense;
+	private final int SV_dim;
+	private final double[][] w;		// explicit feature map, see svm_expand_model
+	private final double[][] w2;
+	private final int w2_dim;
+	private final double[] w0;
+	private final int[] feature_start;	// inverted index, see svm_index_model
+	private final int[] posting_sv;
+	private final double[] posting_value;
+	private final double[] SV_norm;		// squared norms of the SVs for RBF, or null
+
+	// queries in a tile, and doubles of the SVs in a tile, about L2 sized
+	private static final int QUERY_TILE = 8;
+	private static final int SV_TILE_SIZE = 1<<14;
+	private final int sv_tile;
+
+	// buffers of a prediction; static, so that the values of the
+	// ThreadLocal below, which live as long as their threads, do not keep
+	// the predictor and its model reachable. dim is that of the dense SVs,
+	// or 0; l kernel values unless the model is expanded, and with block,
+	// the buffers of kernel_block
+	private static final class Scratch
+	{
+		final double[] kvalue;
+		final double[] xd;
+		final double[] dec_values;
+		final double[] prob_estimates;
+		final int[] vote;
+		final double[][] pairwise_prob;
+		final double[][] Q;
+		final double[] Qp;
+		final double[] kblock;
+		final double[] xt;
+		final double[] xt_norm;
+
+		Scratch(int l, int dim, int nr_decision, int nr_class, boolean kernel, boolean block)
+		{
+			kvalue = kernel ? new double[l] : null;
+			xd = dim > 0 ? new double[dim] : null;
+			dec_values = new double[nr_decision];
+			prob_estimates = new double[nr_class];
+			vote = new int[nr_class];
+			pairwise_prob = new double[nr_class][nr_class];
+			Q = new double[nr_class][nr_class];
+			Qp = new double[nr_class];
+			kblock = block ? new double[QUERY_TILE*l] : null;
+			xt = block ? new double[QUERY_TILE*dim] : null;
+			xt_norm = block ? new double[QUERY_TILE] : null;
+		}
+	}
+
+	// the buffers of a single row prediction, or with batch, of a range
+	// of a batch
+	private Scratch new_scratch(boolean batch)
+	{
+		return new Scratch(l,SV_dense != null ? SV_dim : 0,nr_decision,nr_class,
+			w == null,batch && w == null && SV_dense != null);
+	}
+
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>()
+	{
+		protected Scratch initialValue()
+		{
+			return new_scratch(false);
+		}
+	};
+
+	public svm_predictor(svm_model model)
+	{
+		param = model.param;
+		l = model.l;
+		nr_class = model.nr_class;
+		nr_decision = svm.nr_decision(model);
+		one_decision = param.svm_type == svm_parameter.ONE_CLASS ||
+			param.svm_type == svm_parameter.EPSILON_SVR ||
+			param.svm_type == svm_parameter.NU_SVR;
+		label = model.label;
+		nSV = model.nSV;
+		sv_coef = model.sv_coef;
+		rho = model.rho;
+		probA = model.probA;
+		probB = model.probB;
+		SV = model.SV;
+		SV_dense = model.SV_dense;
+		SV_dim = model.SV_dim;
+		w = model.w;
+		w2 = model.w2;
+		w2_dim = model.w2_dim;
+		w0 = model.w0;
+		feature_start = model.feature_start;
+		posting_sv = model.posting_sv;
+		posting_value = model.posting_value;
+		SV_norm = model.sv_norm != null ? model.sv_norm : svm.sv_norms(model);
+		sv_tile = Math.max(SV_TILE_SIZE/Math.max(SV_dim,1),1);
+		if(one_decision)
+			start = null;
+		else
+		{
+			start = new int[nr_class];
+			for(int i=1;i<nr_class;i++)
+				start[i] = start[i-1]+nSV[i-1];
+		}
+	}
+
+	// the RBF kernel value of SV i and a query of squared norm x_norm
+	private double rbf(double x_norm, int i, double dot)
+	{
+		return Math.exp(-param.gamma*Math.max(x_norm+SV_norm[i]-2*dot,0));
+	}
+
+	// the kernel values of the dot products dot[row..row+l) with every SV,
+	// for a query of squared norm x_norm
+	private void transform(double[] dot, int row, double x_norm)
+	{
+		int i;
+		double gamma = param.gamma;
+		double coef0 = param.coef0;
+		switch(param.kernel_type)
+		{
+			case svm_parameter.POLY:
+				for(i=0;i<l;i++)
+					dot[row+i] = svm.powi(gamma*dot[row+i]+coef0,param.degree);
+				break;
+			case svm_parameter.RBF:
+				for(i=0;i<l;i++)
+					dot[row+i] = rbf(x_norm,i,dot[row+i]);
+				break;
+			case svm_parameter.SIGMOID:
+				for(i=0;i<l;i++)
+					dot[row+i] = Math.tanh(gamma*dot[row+i]+coef0);
+				break;
+		}
+	}
+
+	// kernel values between x and every SV, into s.kvalue; for RBF, one
+	// dot product per SV with the norm of x taken once
+	private void kernel_values(svm_node[] x, Scratch s)
+	{
+		double[] kvalue = s.kvalue;
+		int i;
+		if(feature_start != null)
+		{
+			// postings in SV order, so each sum runs over the features of
+			// x in order, as svm.dot sums
+			for(i=0;i<l;i++)
+				kvalue[i] = 0;
+			int n = feature_start.length-1;
+			for(i=0;i<x.length;i++)
+			{
+				int index = x[i].index;
+				if(index < 1 || index > n)
+					continue;
+				double v = x[i].value;
+				for(int p=feature_start[index-1];p<feature_start[index];p++)
+					kvalue[posting_sv[p]] += posting_value[p] * v;
+			}
+			transform(kvalue,0,SV_norm != null ? svm.dot(x,x) : 0);
+		}
+		else if(SV_dense != null)
+		{
+			int n = SV_dim;
+			double[] xd = s.xd;
+			double x_extra = 0;
+			for(i=0;i<x.length;i++)
+			{
+				int index = x[i].index;
+				if(index >= 1 && index <= n)
+					xd[index-1] = x[i].value;
+				else
+					x_extra += x[i].value * x[i].value;
+			}
+			if(SV_norm != null)
+			{
+				double x_norm = svm.dense_dot(xd,0,xd,0,n)+x_extra;
+				for(i=0;i<l;i++)
+					kvalue[i] = rbf(x_norm,i,svm.dense_dot(xd,0,SV_dense,i*n,n));
+			}
+			else
+				for(i=0;i<l;i++)
+					kvalue[i] = svm.k_function(xd,x_extra,SV_dense,i*n,n,param);
+			// zero again for the next query
+			for(i=0;i<x.length;i++)
+			{
+				int index = x[i].index;
+				if(index >= 1 && index <= n)
+					xd[index-1] = 0;
+			}
+		}
+		else if(SV_norm != null)
+		{
+			double x_norm = svm.dot(x,x);
+			for(i=0;i<l;i++)
+				kvalue[i] = rbf(x_norm,i,svm.dot(x,SV[i]));
+		}
+		else
+			for(i=0;i<l;i++)
+				kvalue[i] = svm.k_function(x,SV[i],param);
+	}
+
+	//
+	// kernel values between the queries x[0..m) and every SV, into
+	// s.kblock[q*l..q*l+l), for dense SVs. The dot products are taken a
+	// tile of SVs at a time against every query of the tile, four queries
+	// per pass over an SV; RBF uses ||x||^2+||sv||^2-2x.sv with the stored
+	// norms.
+	//
+	private void kernel_block(svm_node[][] x, int m, Scratch s)
+	{
+		int n = SV_dim;
+		double[] kblock = s.kblock;
+		double[] xt = s.xt;
+		double[] xt_norm = s.xt_norm;
+		int q, i;
+		for(q=0;q<m;q++)
+		{
+			svm_node[] xq = x[q];
+			double x_extra = 0;
+			for(int k=0;k<xq.length;k++)
+			{
+				int index = xq[k].index;
+				if(index >= 1 && index <= n)
+					xt[q*n+index-1] = xq[k].value;
+				else
+					x_extra += xq[k].value * xq[k].value;
+			}
+			if(SV_norm != null)
+				xt_norm[q] = svm.dense_dot(xt,q*n,xt,q*n,n)+x_extra;
+		}
+
+		// dot products, four queries at a time against each SV of a tile
+		for(int i0=0;i0<l;i0+=sv_tile)
+		{
+			int i1 = Math.min(i0+sv_tile,l);
+			for(q=0;q+4<=m;q+=4)
+				for(i=i0;i<i1;i++)
+					dense_dot4(xt,q,SV_dense,i,n,kblock,q*l+i);
+			for(;q<m;q++)
+				for(i=i0;i<i1;i++)
+					kblock[q*l+i] = svm.dense_dot(xt,q*n,SV_dense,i*n,n);
+		}
+
+		for(q=0;q<m;q++)
+			transform(kblock,q*l,xt_norm[q]);
+
+		// zero again for the next tile
+		for(q=0;q<m;q++)
+		{
+			svm_node[] xq = x[q];
+			for(int k=0;k<xq.length;k++)
+			{
+				int index = xq[k].index;
+				if(index >= 1 && index <= n)
+					xt[q*n+index-1] = 0;
+			}
+		}
+	}
+
+	// dense_dot of queries q..q+3 of xt with SV i, summed in the same
+	// order, into out[off], out[off+l], out[off+2l] and out[off+3l]
+	private void dense_dot4(double[] xt, int q, double[] sv, int i, int n, double[] out, int off)
+	{
+		int p0 = q*n, p1 = p0+n, p2 = p1+n, p3 = p2+n;
+		int s = i*n;
+		double a0 = 0, a1 = 0, a2 = 0, a3 = 0;
+		double b0 = 0, b1 = 0, b2 = 0, b3 = 0;
+		double c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+		double d0 = 0, d1 = 0, d2 = 0, d3 = 0;
+		int k = 0;
+		for(;k+4<=n;k+=4)
+		{
+			double y0 = sv[s+k], y1 = sv[s+k+1], y2 = sv[s+k+2], y3 = sv[s+k+3];
+			a0 += xt[p0+k] * y0; a1 += xt[p0+k+1] * y1; a2 += xt[p0+k+2] * y2; a3 += xt[p0+k+3] * y3;
+			b0 += xt[p1+k] * y0; b1 += xt[p1+k+1] * y1; b2 += xt[p1+k+2] * y2; b3 += xt[p1+k+3] * y3;
+			c0 += xt[p2+k] * y0; c1 += xt[p2+k+1] * y1; c2 += xt[p2+k+2] * y2; c3 += xt[p2+k+3] * y3;
+			d0 += xt[p3+k] * y0; d1 += xt[p3+k+1] * y1; d2 += xt[p3+k+2] * y2; d3 += xt[p3+k+3] * y3;
+		}
+		for(;k<n;k++)
+		{
+			double y = sv[s+k];
+			a0 += xt[p0+k] * y;
+			b0 += xt[p1+k] * y;
+			c0 += xt[p2+k] * y;
+			d0 += xt[p3+k] * y;
+		}
+		out[off] = (a0+a1)+(a2+a3);
+		out[off+l] = (b0+b1)+(b2+b3);
+		out[off+2*l] = (c0+c1)+(c2+c3);
+		out[off+3*l] = (d0+d1)+(d2+d3);
+	}
+
+	// x'*w2*x + w.x + w0 for decision function p
+	private double expanded_value(int p, svm_node[] x)
+	{
+		double[] w = this.w[p];
+		double[] w2 = this.w2 == null ? null : this.w2[p];
+		int n = w2_dim;
+		double sum = w0[p];
+		for(int a=0;a<x.length;a++)
+		{
+			int r = x[a].index;
+			if(r < 1 || r >= w.length)
+				continue;
+			double v = w[r];
+			if(w2 != null)
+			{
+				// the diagonal once, the other pairs twice
+				int row = svm.triangle_row(r-1,n)-1;
+				v += w2[row+r]*x[a].value;
+				for(int b=a+1;b<x.length;b++)
+				{
+					int c = x[b].index;
+					if(c < 1 || c > n)
+						continue;
+					v += 2*w2[r <= c ? row+c : svm.triangle_row(c-1,n)-1+r]*x[b].value;
+				}
+			}
+			sum += v*x[a].value;
+		}
+		return sum;
+	}
+
+	// decision values from the kernel values kvalue[offset..offset+l)
+	private void decision_values(double[] kvalue, int offset, double[] dec_values)
+	{
+		int i;
+		if(one_decision)
+		{
+			double sum = 0;
+			double[] coef = sv_coef[0];
+			for(i=0;i<l;i++)
+				sum += coef[i] * kvalue[offset+i];
+			sum -= rho[0];
+			dec_values[0] = sum;
+		}
+		else
+		{
+			int p=0;
+			for(i=0;i<nr_class;i++)
+				for(int j=i+1;j<nr_class;j++)
+				{
+					int si = offset+start[i];
+					int sj = offset+start[j];
+					int ci = nSV[i];
+					int cj = nSV[j];
+
+					int k;
+					double[] coef1 = sv_coef[j-1];
+					double[] coef2 = sv_coef[i];
+					double sum = 0;
+					for(k=0;k<ci;k++)
+						sum += coef1[start[i]+k] * kvalue[si+k];
+					for(k=0;k<cj;k++)
+						sum += coef2[start[j]+k] * kvalue[sj+k];
+					sum -= rho[p];
+					dec_values[p] = sum;
+					p++;
+				}
+		}
+	}
+
+	// the prediction from the decision values
+	private double decide(double[] dec_values, Scratch s)
+	{
+		if(one_decision)
+		{
+			if(param.svm_type == svm_parameter.ONE_CLASS)
+				return (dec_values[0]>0)?1:-1;
+			else
+				return dec_values[0];
+		}
+
+		int i;
+		int[] vote = s.vote;
+		for(i=0;i<nr_class;i++)
+			vote[i] = 0;
+
+		int p=0;
+		for(i=0;i<nr_class;i++)
+			for(int j=i+1;j<nr_class;j++)
+			{
+				if(dec_values[p] > 0)
+					++vote[i];
+				else
+					++vote[j];
+				p++;
+			}
+
+		int vote_max_idx = 0;
+		for(i=1;i<nr_class;i++)
+			if(vote[i] > vote[vote_max_idx])
+				vote_max_idx = i;
+
+		return label[vote_max_idx];
+	}
+
+	public double predict_values(svm_node[] x, double[] dec_values)
+	{
+		return predict_values(x,dec_values,scratch.get());
+	}
+
+	private double predict_values(svm_node[] x, double[] dec_values, Scratch s)
+	{
+		if(w != null)
+		{
+			for(int p=0;p<nr_decision;p++)
+				dec_values[p] = expanded_value(p,x)-rho[p];
+		}
+		else
+		{
+			kernel_values(x,s);
+			decision_values(s.kvalue,0,dec_values);
+		}
+		return decide(dec_values,s);
+	}
+
+	public int get_nr_decision()
+	{
+		return nr_decision;
+	}
+
+	public double predict(svm_node[] x)
+	{
+		Scratch s = scratch.get();
+		return predict_values(x,s.dec_values,s);
+	}
+
+	private boolean probability_model()
+	{
+		return (param.svm_type == svm_parameter.C_SVC || param.svm_type == svm_parameter.NU_SVC) &&
+		       probA!=null && probB!=null;
+	}
+
+	// probability estimates from the decision values
+	private double probability(double[] dec_values, double[] prob_estimates, Scratch s)
+	{
+		int i;
+		double min_prob=1e-7;
+		double[][] pairwise_prob=s.pairwise_prob;
+
+		int k=0;
+		for(i=0;i<nr_class;i++)
+			for(int j=i+1;j<nr_class;j++)
+			{
+				pairwise_prob[i][j]=Math.min(Math.max(svm.sigmoid_predict(dec_values[k],probA[k],probB[k]),min_prob),1-min_prob);
+				pairwise_prob[j][i]=1-pairwise_prob[i][j];
+				k++;
+			}
+		if (nr_class == 2)
+		{
+			prob_estimates[0] = pairwise_prob[0][1];
+			prob_estimates[1] = pairwise_prob[1][0];
+		}
+		else
+			svm.multiclass_probability(nr_class,pairwise_prob,prob_estimates,s.Q,s.Qp);
+
+		int prob_max_idx = 0;
+		for(i=1;i<nr_class;i++)
+			if(prob_estimates[i] > prob_estimates[prob_max_idx])
+				prob_max_idx = i;
+		return label[prob_max_idx];
+	}
+
+	public double predict_probability(svm_node[] x, double[] prob_estimates)
+	{
+		if(probability_model())
+		{
+			Scratch s = scratch.get();
+			predict_values(x,s.dec_values,s);
+			return probability(s.dec_values,prob_estimates,s);
+		}
+		else
+			return predict(x);
+	}
+
+	// prediction of row i of a batch from its decision values in
+	// s.dec_values; with probability estimates, those of a probability
+	// model, or a plain prediction that leaves prob_estimates alone for
+	// other models
+	private void output_row(int i, Scratch s, double[] labels, double[] dec_values, double[] prob_estimates)
+	{
+		if(prob_estimates != null && probability_model())
+		{
+			labels[i] = probability(s.dec_values,s.prob_estimates,s);
+			System.arraycopy(s.prob_estimates,0,prob_estimates,i*nr_class,nr_class);
+		}
+		else
+			labels[i] = decide(s.dec_values,s);
+		if(dec_values != null)
+			System.arraycopy(s.dec_values,0,dec_values,i*nr_decision,nr_decision);
+	}
+
+	// rows [begin,end) of a batch, from x or else from prob
+	private void predict_range(svm_node[][] x, svm_problem prob, int begin, int end,
+		double[] labels, double[] dec_values, double[] prob_estimates)
+	{
+		Scratch s = new_scratch(true);
+		if(w != null || SV_dense == null)
+		{
+			for(int i=begin;i<end;i++)
+			{
+				predict_values(x != null ? x[i] : svm.csr_row(prob,i),s.dec_values,s);
+				output_row(i,s,labels,dec_values,prob_estimates);
+			}
+			return;
+		}
+
+		svm_node[][] tile = new svm_node[QUERY_TILE][];
+		for(int i0=begin;i0<end;i0+=QUERY_TILE)
+		{
+			int m = Math.min(QUERY_TILE,end-i0);
+			for(int q=0;q<m;q++)
+				tile[q] = x != null ? x[i0+q] : svm.csr_row(prob,i0+q);
+			kernel_block(tile,m,s);
+			for(int q=0;q<m;q++)
+			{
+				decision_values(s.kblock,q*l,s.dec_values);
+				output_row(i0+q,s,labels,dec_values,prob_estimates);
+			}
+		}
+	}
+
+	private void predict_batch(final svm_node[][] x, final svm_problem prob, int n,
+		final double[] labels, final double[] dec_values, final double[] prob_estimates, int nr_thread)
+	{
+		new Parallel_Range()
+		{
+			void run(int begin, int end)
+			{
+				predict_range(x,prob,begin,end,labels,dec_values,prob_estimates);
+			}
+		}.invoke(nr_thread,0,n,Math.max(n/(16*Math.max(nr_thread,1)),QUERY_TILE));
+	}
+
+	//
+	// Batch prediction of rows x[0..n): labels[i] gets what predict gives
+	// for row i, the label or the regression value. Unless null,
+	// dec_values[i*get_nr_decision()..] gets its decision values, and
+	// with prob_estimates, labels[i] and prob_estimates[i*nr_class..] are
+	// what predict_probability gives; like it, a model without probability
+	// information leaves prob_estimates as it was. The rows are spread
+	// over nr_thread threads.
+	//
+	public void predict(svm_node[][] x, double[] labels, double[] dec_values,
+		double[] prob_estimates, int nr_thread)
+	{
+		predict_batch(x,null,x.length,labels,dec_values,prob_estimates,nr_thread);
+	}
+
+	// batch prediction of the rows of a problem, in x or in compressed
+	// sparse rows, as above
+	public void predict(svm_problem prob, double[] labels, double[] dec_values,
+		double[] prob_estimates, int nr_thread)
+	{
+		if(prob.x_start == null)
+			predict_batch(prob.x,null,prob.l,labels,dec_values,prob_estimates,nr_thread);
+		else
+			predict_batch(null,prob,prob.l,labels,dec_values,prob_estimates,nr_thread);
+	}
+}
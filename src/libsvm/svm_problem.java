@@ -4,6 +4,10 @@ public class svm_problem implements java.io.Serializable
 	public int l;
 	public double[] y;
 	public svm_node[][] x;
+	public int[] x_index;	// compressed sparse row storage, used instead
+	public double[] x_value;	// of x when x_start != null
+	public int[] x_start;
+	public int[] x_end;
 	/*
 	where `l' is the number of training data, and `y' is an array containing
     their target values. (integers in classification, real numbers in
@@ -31,5 +35,23 @@ public class svm_problem implements java.io.Serializable
          [ ] -> (1,0.4) (-1,?)
          [ ] -> (2,0.1) (4,1.4) (5,0.5) (-1,?)
          [ ] -> (1,-0.1) (2,-0.2) (3,0.1) (4,1.1) (5,0.1) (-1,?)
+
+    The same data in compressed sparse row form keeps all nonzeros in two
+    flat arrays; row i is made of the entries k in [x_start[i],x_end[i]):
+
+    x_index -> 2   3   2   3   4    1   2   4   5   1    2    3   4   5
+    x_value -> 0.1 0.2 0.1 0.3 -1.2 0.4 0.1 1.4 0.5 -0.1 -0.2 0.1 1.1 0.1
+
+    x_start -> 0 2 5 6 9
+    x_end   -> 2 5 6 9 14
+
+    Dense data (x_index == null) keeps the same layout without indices:
+    entry k of a row is the value of feature k+1, zeros included.
+    svm_train switches to it when most features are nonzero.
+
+    Rows of a compressed problem may share storage, so a subset or a
+    reordering of the data only needs new x_start and x_end arrays.
+    A problem given through x is converted to this form by svm_train
+    and svm_cross_validation.
 	 */
 }
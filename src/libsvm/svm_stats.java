@@ -0,0 +1,51 @@
+//
+// svm_stats
+//
+// what the solver did for a model, summed over its decision functions;
+// trainings for probability estimates are not included
+//
+package libsvm;
+public class svm_stats implements java.io.Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	public int nr_solve;		// decision functions solved
+	public long nr_iter;		// iterations of the solver
+	public long nr_kernel_eval;	// kernel evaluations
+	public long nr_cache_hit;	// columns found in the kernel cache
+	public long nr_cache_miss;	// columns computed, in full or in part
+	public long nr_cache_evict;	// columns dropped to make room
+	public long peak_cache_bytes;	// most memory one kernel cache held
+	public long nr_shrink;		// shrinking steps that removed variables
+	public long nr_reconstruct;	// gradient reconstructions
+	public long init_ns;		// time initializing the gradient
+	public long iter_ns;		// time iterating, without reconstructions
+	public long reconstruct_ns;	// time reconstructing the gradient
+	public long train_ns;		// time of svm_train, shared by the models of a path
+
+	void add(svm_stats s)
+	{
+		nr_solve += s.nr_solve;
+		nr_iter += s.nr_iter;
+		nr_kernel_eval += s.nr_kernel_eval;
+		nr_cache_hit += s.nr_cache_hit;
+		nr_cache_miss += s.nr_cache_miss;
+		nr_cache_evict += s.nr_cache_evict;
+		peak_cache_bytes = Math.max(peak_cache_bytes,s.peak_cache_bytes);
+		nr_shrink += s.nr_shrink;
+		nr_reconstruct += s.nr_reconstruct;
+		init_ns += s.init_ns;
+		iter_ns += s.iter_ns;
+		reconstruct_ns += s.reconstruct_ns;
+	}
+
+	public String toString()
+	{
+		return "#solve = "+nr_solve+", #iter = "+nr_iter+", #kernel = "+nr_kernel_eval+"\n"+
+			"cache hits = "+nr_cache_hit+", misses = "+nr_cache_miss+", evictions = "+nr_cache_evict+
+			", peak = "+peak_cache_bytes/(1<<10)+" KB\n"+
+			"shrinking = "+nr_shrink+", reconstructions = "+nr_reconstruct+"\n"+
+			"time: init = "+init_ns/1000000+" ms, iterations = "+iter_ns/1000000+
+			" ms, reconstruction = "+reconstruct_ns/1000000+" ms, total = "+train_ns/1000000+" ms\n";
+	}
+}
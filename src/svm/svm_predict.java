@@ -2,6 +2,17 @@ package svm;
 import libsvm.*;
 import java.io.*;
 import java.util.*;
+import jdk.jfr.*;
+
+@Name("libsvm.Predict")
+@Label("Predict")
+@Category("LIBSVM")
+final class Predict_Event extends Event {
+	@Label("Rows") int rows;
+	@Label("Classes") int nr_class;
+	@Label("Support Vectors") int nr_sv;
+	@Label("Probability Estimates") boolean probability;
+}
 
 public class svm_predict {
 	private static svm_print_interface svm_print_null = new svm_print_interface()
@@ -34,8 +45,13 @@ public class svm_predict {
 		return Integer.parseInt(s);
 	}
 
-	private static void predict(BufferedReader input, DataOutputStream output, svm_model model, int predict_probability) throws IOException
+	// rows read and predicted at a time
+	private static final int CHUNK = 1<<16;
+
+	private static void predict(BufferedReader input, DataOutputStream output, svm_model model, int predict_probability, int nr_thread) throws IOException
 	{
+		Predict_Event event = new Predict_Event();
+		event.begin();
 		int correct = 0;
 		int total = 0;
 		double error = 0;
@@ -56,54 +72,81 @@ public class svm_predict {
 			{
 				int[] labels=new int[nr_class];
 				svm.svm_get_labels(model,labels);
-				prob_estimates = new double[nr_class];
+				prob_estimates = new double[CHUNK*nr_class];
 				output.writeBytes("labels");
 				for(int j=0;j<nr_class;j++)
 					output.writeBytes(" "+labels[j]);
 				output.writeBytes("\n");
 			}
 		}
-		while(true)
+		// read a chunk of rows, predict them over nr_thread threads, write
+		double[] target = new double[CHUNK];
+		svm_node[][] x = new svm_node[CHUNK][];
+		double[] v = new double[CHUNK];
+		boolean eof = false;
+		while(!eof)
 		{
-			String line = input.readLine();
-			if(line == null) break;
+			int n = 0;
+			while(n < CHUNK)
+			{
+				String line = input.readLine();
+				if(line == null)
+				{
+					eof = true;
+					break;
+				}
 
-			StringTokenizer st = new StringTokenizer(line," \t\n\r\f:");
+				StringTokenizer st = new StringTokenizer(line," \t\n\r\f:");
 
-			double target = atof(st.nextToken());
-			int m = st.countTokens()/2;
-			svm_node[] x = new svm_node[m];
-			for(int j=0;j<m;j++)
-			{
-				x[j] = new svm_node();
-				x[j].index = atoi(st.nextToken());
-				x[j].value = atof(st.nextToken());
+				target[n] = atof(st.nextToken());
+				int m = st.countTokens()/2;
+				svm_node[] row = new svm_node[m];
+				for(int j=0;j<m;j++)
+				{
+					row[j] = new svm_node();
+					row[j].index = atoi(st.nextToken());
+					row[j].value = atof(st.nextToken());
+				}
+				x[n++] = row;
 			}
+			if(n == 0)
+				break;
+			if(n < CHUNK)
+				x = Arrays.copyOf(x,n);
 
-			double v;
-			if (predict_probability==1 && (svm_type==svm_parameter.C_SVC || svm_type==svm_parameter.NU_SVC))
-			{
-				v = svm.svm_predict_probability(model,x,prob_estimates);
-				output.writeBytes(v+" ");
-				for(int j=0;j<nr_class;j++)
-					output.writeBytes(prob_estimates[j]+" ");
-				output.writeBytes("\n");
-			}
-			else
+			svm.svm_predict_batch(model,x,v,null,prob_estimates,nr_thread);
+
+			for(int i=0;i<n;i++)
 			{
-				v = svm.svm_predict(model,x);
-				output.writeBytes(v+"\n");
+				if(prob_estimates != null)
+				{
+					output.writeBytes(v[i]+" ");
+					for(int j=0;j<nr_class;j++)
+						output.writeBytes(prob_estimates[i*nr_class+j]+" ");
+					output.writeBytes("\n");
+				}
+				else
+					output.writeBytes(v[i]+"\n");
+
+				if(v[i] == target[i])
+					++correct;
+				error += (v[i]-target[i])*(v[i]-target[i]);
+				sumv += v[i];
+				sumy += target[i];
+				sumvv += v[i]*v[i];
+				sumyy += target[i]*target[i];
+				sumvy += v[i]*target[i];
+				++total;
 			}
-
-			if(v == target)
-				++correct;
-			error += (v-target)*(v-target);
-			sumv += v;
-			sumy += target;
-			sumvv += v*v;
-			sumyy += target*target;
-			sumvy += v*target;
-			++total;
+		}
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.rows = total;
+			event.nr_class = nr_class;
+			event.nr_sv = svm.svm_get_nr_sv(model);
+			event.probability = predict_probability == 1;
+			event.commit();
 		}
 		if(svm_type == svm_parameter.EPSILON_SVR ||
 		   svm_type == svm_parameter.NU_SVR)
@@ -124,13 +167,14 @@ public class svm_predict {
 		System.err.print("usage: svm_predict [options] test_file model_file output_file\n"
 		+"options:\n"
 		+"-b probability_estimates: whether to predict probability estimates, 0 or 1 (default 0); one-class SVM not supported yet\n"
+		+"-j nr_thread : number of threads predicting rows (default 1)\n"
 		+"-q : quiet mode (no outputs)\n");
 		throw new Exception();
 	}
 
 	public static void main(String argv[]) throws Exception
 	{
-		int i, predict_probability=0;
+		int i, predict_probability=0, nr_thread=1;
         	svm_print_string = svm_print_stdout;
 
 		// parse options
@@ -143,6 +187,9 @@ public class svm_predict {
 				case 'b':
 					predict_probability = atoi(argv[i]);
 					break;
+				case 'j':
+					nr_thread = atoi(argv[i]);
+					break;
 				case 'q':
 					svm_print_string = svm_print_null;
 					i--;
@@ -183,7 +230,7 @@ public class svm_predict {
 					svm_predict.info("Model supports probability estimates, but disabled in prediction.\n");
 				}
 			}
-			predict(input,output,model,predict_probability);
+			predict(input,output,model,predict_probability,nr_thread);
 			input.close();
 			output.close();
 		} 
@@ -3,6 +3,17 @@ import libsvm.*;
 import java.io.*;
 import java.util.*;
 import java.text.DecimalFormat;
+import jdk.jfr.*;
+
+@Name("libsvm.Scale")
+@Label("Scale")
+@Category("LIBSVM")
+final class Scale_Event extends Event {
+	@Label("Rows") int rows;
+	@Label("Features") int max_index;
+	@Label("Nonzeros Before") long nnz;
+	@Label("Nonzeros After") long new_nnz;
+}
 
 public class svm_scale
 {
@@ -101,6 +112,9 @@ public class svm_scale
 		String save_filename = null;
 		String restore_filename = null;
 		String data_filename = null;
+		int rows = 0;
+		Scale_Event event = new Scale_Event();
+		event.begin();
 		
 		// argv.length - 1 due to the extra argument for saving the scaled data
 		for(i=0; i<argv.length - 1; i++)
@@ -364,6 +378,7 @@ public class svm_scale
 				System.err.print("Error writing to scaled data file!");
 			}
 			//System.out.print("\n");
+			++rows;
 		}
 		if (new_num_nonzeros > num_nonzeros)
 			System.err.print(
@@ -372,6 +387,16 @@ public class svm_scale
 			+"Use -l 0 if many original feature values are zeros\n");
 
 		fp.close();
+		scaledData.close();
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.rows = rows;
+			event.max_index = max_index;
+			event.nnz = num_nonzeros;
+			event.new_nnz = new_num_nonzeros;
+			event.commit();
+		}
 	}
 
 	/**
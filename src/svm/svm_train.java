@@ -2,6 +2,16 @@ package svm;
 import libsvm.*;
 import java.io.*;
 import java.util.*;
+import jdk.jfr.*;
+
+@Name("libsvm.ReadProblem")
+@Label("Read Problem")
+@Category("LIBSVM")
+final class Read_Problem_Event extends Event {
+	@Label("File") String file;
+	@Label("Rows") int l;
+	@Label("Nonzeros") long nnz;
+}
 
 public class svm_train {
 	private svm_parameter param;		// set by parse_command_line
@@ -12,6 +22,8 @@ public class svm_train {
 	private String error_msg;
 	private int cross_validation;
 	private int nr_fold;
+	private int save_weights;
+	private boolean quiet;
 
 	private static svm_print_interface svm_print_null = new svm_print_interface()
 	{
@@ -42,11 +54,26 @@ public class svm_train {
 		+"-n nu : set the parameter nu of nu-SVC, one-class SVM, and nu-SVR (default 0.5)\n"
 		+"-p epsilon : set the epsilon in loss function of epsilon-SVR (default 0.1)\n"
 		+"-m cachesize : set cache memory size in MB (default 100)\n"
+		+"-o cache_type : where to keep the kernel cache (default 0)\n"
+		+"	0 -- Java heap\n"
+		+"	1 -- off-heap arena (keeps large caches out of garbage collection,\n"
+		+"	     but each cache hit copies the column back to the heap)\n"
+		+"-y cache_policy : which kernel column to evict from a full cache (default 0)\n"
+		+"	0 -- least recently used\n"
+		+"	1 -- segmented LRU (columns used twice are evicted last)\n"
+		+"	2 -- least frequently used among the oldest columns\n"
+		+"-G gram_size : set memory in MB for dot products shared by cross validation folds (default 0)\n"
 		+"-e epsilon : set tolerance of termination criterion (default 0.001)\n"
 		+"-h shrinking : whether to use the shrinking heuristics, 0 or 1 (default 1)\n"
+		+"-x index_indirection : keep cached columns in original order while shrinking, 0 or 1 (default 0)\n"
 		+"-b probability_estimates : whether to train a SVC or SVR model for probability estimates, 0 or 1 (default 0)\n"
+		+"-f n : number of internal cross validation folds for probability estimates (default 5)\n"
 		+"-wi weight : set the parameter C of class i to weight*C, for C-SVC (default 1)\n"
+		+"-j nr_thread : number of threads used to compute kernel columns (default 1)\n"
+		+"-J nr_task_thread : number of one-vs-one subproblems or cross validation folds trained at once (default 1)\n"
 		+"-v n : n-fold cross validation mode\n"
+		+"-a alpha_seeding : whether to start C-SVC and epsilon-SVR folds from a model of all data, 0 or 1 (default 0)\n"
+		+"-l save_weights : whether to save the weight vectors of a linear model in model_file, 0 or 1 (default 0)\n"
 		+"-q : quiet mode (no outputs)\n"
 		);
 		throw new Exception();
@@ -109,7 +136,9 @@ public class svm_train {
 		else
 		{
 			model = svm.svm_train(prob,param);
-			svm.svm_save_model(model_file_name,model);
+			if(!quiet)
+				System.out.print(model.stats);
+			svm.svm_save_model(model_file_name,model,save_weights != 0);
 		}
 	}
 
@@ -156,15 +185,24 @@ public class svm_train {
 		param.coef0 = 0;
 		param.nu = 0.5;
 		param.cache_size = 100;
+		param.cache_type = svm_parameter.HEAP;
+		param.cache_policy = svm_parameter.LRU;
+		param.gram_size = 0;
 		param.C = 1;
 		param.eps = 1e-3;
 		param.p = 0.1;
 		param.shrinking = 1;
+		param.index_indirection = 0;
 		param.probability = 0;
+		param.nr_prob_fold = 5;
+		param.alpha_seeding = 0;
+		param.nr_thread = 1;
+		param.nr_task_thread = 1;
 		param.nr_weight = 0;
 		param.weight_label = new int[0];
 		param.weight = new double[0];
 		cross_validation = 0;
+		save_weights = 0;
 
 		// parse options
 		for(i=0;i<argv.length;i++)
@@ -195,6 +233,15 @@ public class svm_train {
 				case 'm':
 					param.cache_size = atof(argv[i]);
 					break;
+				case 'o':
+					param.cache_type = atoi(argv[i]);
+					break;
+				case 'y':
+					param.cache_policy = atoi(argv[i]);
+					break;
+				case 'G':
+					param.gram_size = atof(argv[i]);
+					break;
 				case 'c':
 					param.C = atof(argv[i]);
 					break;
@@ -207,11 +254,30 @@ public class svm_train {
 				case 'h':
 					param.shrinking = atoi(argv[i]);
 					break;
+				case 'x':
+					param.index_indirection = atoi(argv[i]);
+					break;
 				case 'b':
 					param.probability = atoi(argv[i]);
 					break;
+				case 'f':
+					param.nr_prob_fold = atoi(argv[i]);
+					break;
+				case 'a':
+					param.alpha_seeding = atoi(argv[i]);
+					break;
+				case 'j':
+					param.nr_thread = atoi(argv[i]);
+					break;
+				case 'J':
+					param.nr_task_thread = atoi(argv[i]);
+					break;
+				case 'l':
+					save_weights = atoi(argv[i]);
+					break;
 				case 'q':
 					print_func = svm_print_null;
+					quiet = true;
 					i--;
 					break;
 				case 'v':
@@ -266,13 +332,18 @@ public class svm_train {
 	}
 
 	// read in a problem (in svmlight format)
+	// rows go straight into compressed sparse row storage (see svm_problem)
 
-	private void read_problem() throws Exception
+	public static svm_problem read_problem(String input_file_name) throws Exception
 	{
+		Read_Problem_Event event = new Read_Problem_Event();
+		event.begin();
 		BufferedReader fp = new BufferedReader(new FileReader(input_file_name));
 		Vector<Double> vy = new Vector<Double>();
-		Vector<svm_node[]> vx = new Vector<svm_node[]>();
-		int max_index = 0;
+		int[] row_ptr = new int[1024];
+		int[] index = new int[1024];
+		double[] value = new double[1024];
+		int nnz = 0;
 
 		while(true)
 		{
@@ -283,46 +354,69 @@ public class svm_train {
 
 			vy.addElement(atof(st.nextToken()));
 			int m = st.countTokens()/2;
-			svm_node[] x = new svm_node[m];
+			if(nnz+m > index.length)
+			{
+				int n = Math.max(2*index.length, nnz+m);
+				index = Arrays.copyOf(index,n);
+				value = Arrays.copyOf(value,n);
+			}
 			for(int j=0;j<m;j++)
 			{
-				x[j] = new svm_node();
-				x[j].index = atoi(st.nextToken());
-				x[j].value = atof(st.nextToken());
+				index[nnz] = atoi(st.nextToken());
+				value[nnz] = atof(st.nextToken());
+				++nnz;
 			}
-			if(m>0) max_index = Math.max(max_index, x[m-1].index);
-			vx.addElement(x);
+			if(vy.size() >= row_ptr.length)
+				row_ptr = Arrays.copyOf(row_ptr,2*row_ptr.length);
+			row_ptr[vy.size()] = nnz;
 		}
 
-		prob = new svm_problem();
+		svm_problem prob = new svm_problem();
 		prob.l = vy.size();
-		prob.x = new svm_node[prob.l][];
-		for(int i=0;i<prob.l;i++)
-			prob.x[i] = vx.elementAt(i);
+		prob.x_index = Arrays.copyOf(index,nnz);
+		prob.x_value = Arrays.copyOf(value,nnz);
+		prob.x_start = Arrays.copyOf(row_ptr,prob.l);
+		prob.x_end = Arrays.copyOfRange(row_ptr,1,prob.l+1);
 		prob.y = new double[prob.l];
 		for(int i=0;i<prob.l;i++)
 			prob.y[i] = vy.elementAt(i);
 
+		fp.close();
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.file = input_file_name;
+			event.l = prob.l;
+			event.nnz = nnz;
+			event.commit();
+		}
+		return prob;
+	}
+
+	private void read_problem() throws Exception
+	{
+		prob = read_problem(input_file_name);
+		int max_index = 0;
+		for(int i=0;i<prob.l;i++)
+			if(prob.x_end[i] > prob.x_start[i])
+				max_index = Math.max(max_index, prob.x_index[prob.x_end[i]-1]);
+
 		if(param.gamma == 0 && max_index > 0)
 			param.gamma = 1.0/max_index;
 
 		if(param.kernel_type == svm_parameter.PRECOMPUTED)
 			for(int i=0;i<prob.l;i++)
 			{
-				if (prob.x[i][0].index != 0)
+				if (prob.x_start[i] == prob.x_end[i] || prob.x_index[prob.x_start[i]] != 0)
 				{
 					System.err.print("Wrong kernel matrix: first column must be 0:sample_serial_number\n");
-					fp.close();
 					throw new Exception();
 				}
-				if ((int)prob.x[i][0].value <= 0 || (int)prob.x[i][0].value > max_index)
+				if ((int)prob.x_value[prob.x_start[i]] <= 0 || (int)prob.x_value[prob.x_start[i]] > max_index)
 				{
 					System.err.print("Wrong input format: sample_serial_number out of range\n");
-					fp.close();
 					throw new Exception();
 				}
 			}
-
-		fp.close();
 	}
 }
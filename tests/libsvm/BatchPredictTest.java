@@ -0,0 +1,138 @@
+package libsvm;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+/**
+ * Batch predictions of rows and of problems against one row at a time,
+ * for batches that do not fill whole tiles of queries, on several threads.
+ */
+public class BatchPredictTest {
+
+	private static final int DIM = 12;
+	private static final int[] SIZES = { 1, 7, 13, 8 * 40 + 3, 8 * 131 + 5 };
+	private static final int[] THREADS = { 1, 3, 8 };
+
+	@BeforeClass
+	public static void quiet() {
+		Fixtures.quiet();
+	}
+
+	private static svm_model train(Random rand, int svm_type, int kernel_type, double density, int probability) {
+		svm_problem prob = Fixtures.problem(rand, 120, DIM, density, svm_type == svm_parameter.EPSILON_SVR ? 0 : 3);
+		svm_parameter param = Fixtures.param(svm_type, kernel_type, DIM);
+		param.probability = probability;
+		return svm.svm_train(prob, param);
+	}
+
+	@Test
+	public void denseSupportVectors() {
+		Random rand = new Random(22);
+		svm_model model = train(rand, svm_parameter.C_SVC, svm_parameter.RBF, 0.9, 1);
+		assertNotNull(model.SV_dense);
+		check(model, rand, 0.9);
+	}
+
+	@Test
+	public void indexedSupportVectors() {
+		Random rand = new Random(23);
+		svm_model model = train(rand, svm_parameter.C_SVC, svm_parameter.SIGMOID, 0.3, 1);
+		assertNotNull(model.feature_start);
+		check(model, rand, 0.3);
+	}
+
+	@Test
+	public void expandedModel() {
+		Random rand = new Random(24);
+		svm_model model = train(rand, svm_parameter.NU_SVC, svm_parameter.LINEAR, 0.5, 1);
+		assertNotNull(model.w);
+		check(model, rand, 0.5);
+	}
+
+	@Test
+	public void regression() {
+		Random rand = new Random(25);
+		svm_model model = train(rand, svm_parameter.EPSILON_SVR, svm_parameter.RBF, 0.9, 0);
+		check(model, rand, 0.9);
+	}
+
+	@Test
+	public void withoutProbabilityInformation() {
+		Random rand = new Random(26);
+		svm_model model = train(rand, svm_parameter.C_SVC, svm_parameter.RBF, 0.9, 0);
+		check(model, rand, 0.9);
+	}
+
+	/**
+	 * Each batch size as rows, as a problem of rows, directly and through
+	 * svm_predict_batch, and as sparse and dense problems, with and without
+	 * probability estimates, must give the single row results bit
+	 * for bit; probability estimates of a model without probability
+	 * information are left as they were.
+	 */
+	private static void check(svm_model model, Random rand, double density) {
+		svm_predictor predictor = new svm_predictor(model);
+		int nr_decision = predictor.get_nr_decision();
+		int nr_class = model.nr_class;
+		boolean probability = svm.svm_check_probability_model(model) != 0
+				&& (model.param.svm_type == svm_parameter.C_SVC || model.param.svm_type == svm_parameter.NU_SVC);
+		for (int n : SIZES) {
+			svm_node[][] rows = new svm_node[n][];
+			for (int i = 0; i < n; i++)
+				rows[i] = Fixtures.row(rand, DIM, density, false);
+
+			double[] expected_labels = new double[n];
+			double[] expected_labels_b = new double[n];
+			double[] expected_dec = new double[n * nr_decision];
+			double[] expected_prob = new double[n * nr_class];
+			Arrays.fill(expected_prob, Double.NaN);
+			double[] dec_values = new double[nr_decision];
+			double[] prob_estimates = new double[nr_class];
+			for (int i = 0; i < n; i++) {
+				expected_labels[i] = predictor.predict_values(rows[i], dec_values);
+				System.arraycopy(dec_values, 0, expected_dec, i * nr_decision, nr_decision);
+				Arrays.fill(prob_estimates, Double.NaN);
+				expected_labels_b[i] = predictor.predict_probability(rows[i], prob_estimates);
+				System.arraycopy(prob_estimates, 0, expected_prob, i * nr_class, nr_class);
+			}
+			if (!probability)
+				assertArrayEquals(expected_labels, expected_labels_b, 0);
+
+			svm_problem plain = new svm_problem();
+			plain.l = n;
+			plain.y = new double[n];
+			plain.x = rows;
+			svm_problem[] problems = { null, plain, plain, Fixtures.csr(rows, false, DIM), Fixtures.csr(rows, true, DIM) };
+			String[] forms = { "rows", "problem of rows", "svm_predict_batch", "sparse problem", "dense problem" };
+			for (int nr_thread : THREADS)
+				for (int form = 0; form < forms.length; form++) {
+					String name = n + " rows, " + nr_thread + " threads, " + forms[form];
+					double[] labels = new double[n];
+					double[] dec = new double[n * nr_decision];
+					predict(predictor, form == 2 ? model : null, problems[form], rows, labels, dec, null, nr_thread);
+					assertArrayEquals(name, expected_labels, labels, 0);
+					assertArrayEquals(name, expected_dec, dec, 0);
+
+					double[] prob = new double[n * nr_class];
+					Arrays.fill(prob, Double.NaN);
+					predict(predictor, form == 2 ? model : null, problems[form], rows, labels, null, prob, nr_thread);
+					assertArrayEquals(name + " -b 1", expected_labels_b, labels, 0);
+					assertArrayEquals(name + " -b 1", expected_prob, prob, 0);
+				}
+		}
+	}
+
+	/** Predicts prob through svm_predict_batch if model is given, else rows if prob is null. */
+	private static void predict(svm_predictor predictor, svm_model model, svm_problem prob, svm_node[][] rows,
+			double[] labels, double[] dec_values, double[] prob_estimates, int nr_thread) {
+		if (model != null)
+			svm.svm_predict_batch(model, prob, labels, dec_values, prob_estimates, nr_thread);
+		else if (prob == null)
+			predictor.predict(rows, labels, dec_values, prob_estimates, nr_thread);
+		else
+			predictor.predict(prob, labels, dec_values, prob_estimates, nr_thread);
+	}
+}
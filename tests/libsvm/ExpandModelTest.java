@@ -0,0 +1,93 @@
+package libsvm;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+/**
+ * The explicit feature map of linear and low degree polynomial models,
+ * x'*w2*x + w.x + w0, against the kernel sums it replaces.
+ */
+public class ExpandModelTest {
+
+	@BeforeClass
+	public static void quiet() {
+		Fixtures.quiet();
+	}
+
+	private static svm_model train(svm_problem prob, int svm_type, int kernel_type, int degree) {
+		svm_parameter param = Fixtures.param(svm_type, kernel_type, 10);
+		param.degree = degree;
+		param.gamma = 0.2;
+		param.coef0 = 0.5;
+		return svm.svm_train(prob, param);
+	}
+
+	/**
+	 * Predicts random rows, half of them with features beyond those of the
+	 * SVs and, if shuffle, out of index order, and compares with the
+	 * kernel sums.
+	 */
+	private static void assert_kernel_sums(svm_model model, Random rand, int dim, boolean shuffle) {
+		svm_predictor predictor = new svm_predictor(model);
+		double[] dec_values = new double[predictor.get_nr_decision()];
+		for (int t = 0; t < 200; t++) {
+			svm_node[] x = Fixtures.row(rand, t % 2 == 0 ? dim : dim + 8, 0.5, shuffle && t % 2 == 1);
+			predictor.predict_values(x, dec_values);
+			Fixtures.assert_close("row " + t, Fixtures.decision_values(model, x), dec_values, 1e-9);
+		}
+	}
+
+	@Test
+	public void quadraticClassification() {
+		Random rand = new Random(20);
+		svm_model model = train(Fixtures.problem(rand, 150, 12, 0.5, 3), svm_parameter.C_SVC, svm_parameter.POLY, 2);
+		assertNotNull(model.w2);
+		assertEquals(12, model.w2_dim);
+		assert_kernel_sums(model, rand, 12, true);
+	}
+
+	@Test
+	public void quadraticRegression() {
+		Random rand = new Random(21);
+		svm_model model = train(Fixtures.problem(rand, 150, 12, 0.5, 0), svm_parameter.EPSILON_SVR, svm_parameter.POLY, 2);
+		assertNotNull(model.w2);
+		assert_kernel_sums(model, rand, 12, true);
+	}
+
+	@Test
+	public void degreeOne() {
+		Random rand = new Random(22);
+		svm_model model = train(Fixtures.problem(rand, 150, 12, 0.5, 3), svm_parameter.C_SVC, svm_parameter.POLY, 1);
+		assertNotNull(model.w);
+		assertNull(model.w2);
+		assert_kernel_sums(model, rand, 12, true);
+	}
+
+	@Test
+	public void linear() {
+		Random rand = new Random(23);
+		svm_model model = train(Fixtures.problem(rand, 150, 12, 0.5, 2), svm_parameter.NU_SVC, svm_parameter.LINEAR, 3);
+		assertNotNull(model.w);
+		assertNull(model.w2);
+		assert_kernel_sums(model, rand, 12, true);
+	}
+
+	/**
+	 * A few short SVs over many features keep their kernel sums; Kernel.dot
+	 * merges the rows, so these queries are in index order.
+	 */
+	@Test
+	public void fallsBackWhenTheFormOutgrowsTheSupportVectors() {
+		Random rand = new Random(24);
+		svm_problem prob = Fixtures.problem(rand, 12, 400, 0.005, 2);
+		for (int degree = 1; degree <= 2; degree++) {
+			svm_model model = train(prob, svm_parameter.C_SVC, svm_parameter.POLY, degree);
+			assertNull(model.w);
+			assertNull(model.w2);
+			assert_kernel_sums(model, rand, 400, false);
+		}
+	}
+}
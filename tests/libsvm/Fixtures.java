@@ -0,0 +1,230 @@
+package libsvm;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Random problems and plain reference arithmetic shared by the libsvm tests.
+ */
+final class Fixtures {
+
+	private Fixtures() {}
+
+	/** Silences the training output of the tests. */
+	static void quiet() {
+		svm.svm_set_print_string_function(svm.svm_print_null);
+	}
+
+	/**
+	 * A random row over features 1..dim, each present with the given
+	 * probability; shuffled rows are not in index order.
+	 */
+	static svm_node[] row(Random rand, int dim, double density, boolean shuffle) {
+		List<svm_node> nodes = new ArrayList<svm_node>();
+		for (int j = 1; j <= dim; j++)
+			if (rand.nextDouble() < density) {
+				svm_node node = new svm_node();
+				node.index = j;
+				node.value = rand.nextGaussian();
+				nodes.add(node);
+			}
+		if (shuffle)
+			Collections.shuffle(nodes, rand);
+		return nodes.toArray(new svm_node[0]);
+	}
+
+	/**
+	 * A random problem of l rows: labels 1..nr_class from the nearest of
+	 * nr_class random directions, or regression targets if nr_class is 0.
+	 */
+	static svm_problem problem(Random rand, int l, int dim, double density, int nr_class) {
+		double[][] direction = new double[Math.max(nr_class, 1)][dim + 1];
+		for (double[] d : direction)
+			for (int j = 1; j <= dim; j++)
+				d[j] = rand.nextGaussian();
+		svm_problem prob = new svm_problem();
+		prob.l = l;
+		prob.x = new svm_node[l][];
+		prob.y = new double[l];
+		for (int i = 0; i < l; i++) {
+			prob.x[i] = row(rand, dim, density, false);
+			int best = 0;
+			double best_score = Double.NEGATIVE_INFINITY;
+			for (int c = 0; c < direction.length; c++) {
+				double score = 0;
+				for (svm_node node : prob.x[i])
+					score += direction[c][node.index] * node.value;
+				if (score > best_score) {
+					best = c;
+					best_score = score;
+				}
+			}
+			prob.y[i] = nr_class == 0 ? best_score + 0.1 * rand.nextGaussian() : best + 1;
+		}
+		return prob;
+	}
+
+	/** The svm-train defaults for the given types, with gamma 1/dim. */
+	static svm_parameter param(int svm_type, int kernel_type, int dim) {
+		svm_parameter param = new svm_parameter();
+		param.svm_type = svm_type;
+		param.kernel_type = kernel_type;
+		param.degree = 3;
+		param.gamma = 1.0 / dim;
+		param.coef0 = 0;
+		param.nu = 0.5;
+		param.cache_size = 10;
+		param.cache_type = svm_parameter.HEAP;
+		param.cache_policy = svm_parameter.LRU;
+		param.gram_size = 0;
+		param.C = 1;
+		param.eps = 1e-3;
+		param.p = 0.1;
+		param.shrinking = 1;
+		param.index_indirection = 0;
+		param.probability = 0;
+		param.nr_prob_fold = 5;
+		param.alpha_seeding = 0;
+		param.nr_thread = 1;
+		param.nr_task_thread = 1;
+		param.nr_weight = 0;
+		param.weight_label = new int[0];
+		param.weight = new double[0];
+		return param;
+	}
+
+	/**
+	 * The rows of a precomputed kernel: entry 0 is the serial number of
+	 * the row, 1..l its kernel values with the training rows.
+	 */
+	static svm_node[][] precomputed(svm_parameter param, svm_node[][] train, svm_node[][] rows) {
+		svm_node[][] kernel_rows = new svm_node[rows.length][train.length + 1];
+		for (int i = 0; i < rows.length; i++) {
+			for (int j = 0; j <= train.length; j++) {
+				kernel_rows[i][j] = new svm_node();
+				kernel_rows[i][j].index = j;
+			}
+			kernel_rows[i][0].value = i + 1;
+			for (int j = 0; j < train.length; j++)
+				kernel_rows[i][j + 1].value = kernel(param, rows[i], train[j]);
+		}
+		return kernel_rows;
+	}
+
+	/**
+	 * Rows in compressed sparse row storage, or with dim values a row and
+	 * no indices if dense; dense rows must lie within features 1..dim.
+	 */
+	static svm_problem csr(svm_node[][] rows, boolean dense, int dim) {
+		svm_problem prob = new svm_problem();
+		prob.l = rows.length;
+		prob.y = new double[rows.length];
+		prob.x_start = new int[rows.length];
+		prob.x_end = new int[rows.length];
+		int nnz = 0;
+		for (svm_node[] row : rows)
+			nnz += dense ? dim : row.length;
+		prob.x_index = dense ? null : new int[nnz];
+		prob.x_value = new double[nnz];
+		int k = 0;
+		for (int i = 0; i < rows.length; i++) {
+			prob.x_start[i] = k;
+			if (dense) {
+				for (svm_node node : rows[i])
+					prob.x_value[k + node.index - 1] = node.value;
+				k += dim;
+			} else
+				for (svm_node node : rows[i]) {
+					prob.x_index[k] = node.index;
+					prob.x_value[k++] = node.value;
+				}
+			prob.x_end[i] = k;
+		}
+		return prob;
+	}
+
+	/** Writes a problem in the svm-train input format. */
+	static void write(svm_problem prob, File file) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		for (int i = 0; i < prob.l; i++) {
+			StringBuilder line = new StringBuilder();
+			line.append(prob.y[i]);
+			for (svm_node node : prob.x[i])
+				line.append(' ').append(node.index).append(':').append(node.value);
+			out.println(line);
+		}
+		out.close();
+	}
+
+	/** The dot product of two rows in any index order. */
+	static double dot(svm_node[] x, svm_node[] y) {
+		Map<Integer, Double> values = new HashMap<Integer, Double>();
+		for (svm_node node : y)
+			values.put(node.index, node.value);
+		double sum = 0;
+		for (svm_node node : x) {
+			Double value = values.get(node.index);
+			if (value != null)
+				sum += node.value * value;
+		}
+		return sum;
+	}
+
+	/** The kernel value of a query x and an SV y, straight from the definitions. */
+	static double kernel(svm_parameter param, svm_node[] x, svm_node[] y) {
+		switch (param.kernel_type) {
+			case svm_parameter.LINEAR:
+				return dot(x, y);
+			case svm_parameter.POLY:
+				return Math.pow(param.gamma * dot(x, y) + param.coef0, param.degree);
+			case svm_parameter.RBF:
+				return Math.exp(-param.gamma * (dot(x, x) + dot(y, y) - 2 * dot(x, y)));
+			case svm_parameter.SIGMOID:
+				return Math.tanh(param.gamma * dot(x, y) + param.coef0);
+			case svm_parameter.PRECOMPUTED:
+				return x[(int) y[0].value].value;
+			default:
+				throw new IllegalArgumentException("kernel_type " + param.kernel_type);
+		}
+	}
+
+	/** The decision values of a query as sums of kernel values over the SVs. */
+	static double[] decision_values(svm_model model, svm_node[] x) {
+		int svm_type = model.param.svm_type;
+		if (svm_type == svm_parameter.ONE_CLASS
+				|| svm_type == svm_parameter.EPSILON_SVR
+				|| svm_type == svm_parameter.NU_SVR) {
+			double sum = 0;
+			for (int i = 0; i < model.l; i++)
+				sum += model.sv_coef[0][i] * kernel(model.param, x, model.SV[i]);
+			return new double[] { sum - model.rho[0] };
+		}
+		int nr_class = model.nr_class;
+		int[] start = new int[nr_class];
+		for (int i = 1; i < nr_class; i++)
+			start[i] = start[i - 1] + model.nSV[i - 1];
+		double[] dec_values = new double[nr_class * (nr_class - 1) / 2];
+		int p = 0;
+		for (int i = 0; i < nr_class; i++)
+			for (int j = i + 1; j < nr_class; j++) {
+				double sum = 0;
+				for (int k = 0; k < model.nSV[i]; k++)
+					sum += model.sv_coef[j - 1][start[i] + k] * kernel(model.param, x, model.SV[start[i] + k]);
+				for (int k = 0; k < model.nSV[j]; k++)
+					sum += model.sv_coef[i][start[j] + k] * kernel(model.param, x, model.SV[start[j] + k]);
+				dec_values[p] = sum - model.rho[p];
+				p++;
+			}
+		return dec_values;
+	}
+
+	/** Asserts that two vectors agree to a relative tolerance. */
+	static void assert_close(String message, double[] expected, double[] actual, double tolerance) {
+		assertEquals(message, expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(message + " [" + i + "]", expected[i], actual[i],
+					tolerance * Math.max(1, Math.abs(expected[i])));
+	}
+}
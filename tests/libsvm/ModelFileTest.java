@@ -0,0 +1,115 @@
+package libsvm;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import svm.svm_train;
+
+/**
+ * Saving the weight vectors of a linear model with svm-train -l 1, and
+ * loading them back.
+ */
+public class ModelFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Random rand;
+	private List<String> lines;
+
+	@BeforeClass
+	public static void quiet() {
+		Fixtures.quiet();
+	}
+
+	/** Trains a three class linear model with -l 1 and reads its file. */
+	@Before
+	public void train() throws Exception {
+		rand = new Random(19);
+		File data = folder.newFile("train.txt");
+		File model = folder.newFile("train.txt.model");
+		Fixtures.write(Fixtures.problem(rand, 90, 30, 0.4, 3), data);
+		svm_train.main(new String[] { "-q", "-t", "0", "-l", "1", data.getPath(), model.getPath() });
+		lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new FileReader(model));
+		for (String line = in.readLine(); line != null; line = in.readLine())
+			lines.add(line);
+		in.close();
+	}
+
+	private static svm_model load(List<String> lines) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (String line : lines)
+			text.append(line).append('\n');
+		return svm.svm_load_model(new BufferedReader(new StringReader(text.toString())));
+	}
+
+	private List<String> weight_lines() {
+		List<String> w = new ArrayList<String>();
+		for (String line : lines)
+			if (line.startsWith("w "))
+				w.add(line);
+		return w;
+	}
+
+	private List<String> without_weights() {
+		List<String> kept = new ArrayList<String>(lines);
+		kept.removeAll(weight_lines());
+		return kept;
+	}
+
+	@Test
+	public void savesOneWeightLinePerDecisionFunction() {
+		assertEquals(3, weight_lines().size());
+	}
+
+	@Test
+	public void loadedWeightsPredictAsTheSupportVectors() throws IOException {
+		svm_model saved = load(lines);
+		svm_model rebuilt = load(without_weights());
+		assertNotNull(saved);
+		assertNotNull(saved.w);
+		assertNotNull(rebuilt.w);
+		svm_predictor saved_predictor = new svm_predictor(saved);
+		svm_predictor rebuilt_predictor = new svm_predictor(rebuilt);
+		for (int t = 0; t < 50; t++) {
+			svm_node[] x = Fixtures.row(rand, 35, 0.4, t % 2 == 1);
+			double[] saved_dec = new double[3];
+			double[] rebuilt_dec = new double[3];
+			double label = saved_predictor.predict_values(x, saved_dec);
+			assertEquals(rebuilt_predictor.predict_values(x, rebuilt_dec), label, 0);
+			Fixtures.assert_close("rebuilt", rebuilt_dec, saved_dec, 1e-12);
+			Fixtures.assert_close("kernel sums", Fixtures.decision_values(rebuilt, x), saved_dec, 1e-9);
+		}
+	}
+
+	@Test
+	public void rejectsAMissingWeightLine() throws IOException {
+		List<String> missing = new ArrayList<String>(lines);
+		missing.remove(weight_lines().get(1));
+		assertNull(load(missing));
+	}
+
+	@Test
+	public void rejectsAnExtraWeightLine() throws IOException {
+		List<String> extra = new ArrayList<String>(lines);
+		extra.add(extra.indexOf(weight_lines().get(0)), weight_lines().get(0));
+		assertNull(load(extra));
+	}
+
+	@Test
+	public void rejectsWeightsOfANonLinearKernel() throws IOException {
+		List<String> poly = new ArrayList<String>(lines);
+		assertTrue(poly.remove("kernel_type linear"));
+		poly.add(1, "kernel_type polynomial");
+		poly.add(2, "degree 2");
+		poly.add(3, "gamma 0.1");
+		poly.add(4, "coef0 1");
+		assertNull(load(poly));
+	}
+}
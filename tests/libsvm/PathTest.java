@@ -0,0 +1,150 @@
+package libsvm;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+/**
+ * Trainings along a path of C, which reuse the kernel matrix and the
+ * alphas of the previous C, against training each C on its own; and
+ * index indirection (-x) and alpha seeding (-a) against plain training.
+ */
+public class PathTest {
+
+	private static final int DIM = 8;
+	private static final double EPS = 1e-6;
+	private static final double TOLERANCE = 1e-3;
+	private static final double[] C = { 4, 0.25, 1, 16 };
+
+	@BeforeClass
+	public static void quiet() {
+		Fixtures.quiet();
+	}
+
+	private static svm_parameter param(int svm_type, int shrinking) {
+		svm_parameter param = Fixtures.param(svm_type, svm_parameter.RBF, DIM);
+		param.eps = EPS;
+		param.shrinking = shrinking;
+		return param;
+	}
+
+	private static svm_problem problem(Random rand, int svm_type) {
+		return Fixtures.problem(rand, 200, DIM, 0.8, svm_type == svm_parameter.EPSILON_SVR ? 0 : 3);
+	}
+
+	/** Decision values of both models on the training rows and on new ones. */
+	private static void assert_same_model(String name, svm_model expected, svm_model actual, svm_problem prob, Random rand) {
+		svm_predictor expected_predictor = new svm_predictor(expected);
+		svm_predictor actual_predictor = new svm_predictor(actual);
+		int nr_decision = expected_predictor.get_nr_decision();
+		assertEquals(name, nr_decision, actual_predictor.get_nr_decision());
+		double[] expected_dec = new double[nr_decision];
+		double[] actual_dec = new double[nr_decision];
+		for (int i = 0; i < prob.l + 100; i++) {
+			svm_node[] x = i < prob.l ? prob.x[i] : Fixtures.row(rand, DIM, 0.8, false);
+			expected_predictor.predict_values(x, expected_dec);
+			actual_predictor.predict_values(x, actual_dec);
+			Fixtures.assert_close(name + " row " + i, expected_dec, actual_dec, TOLERANCE);
+		}
+	}
+
+	private static void check_path(int svm_type, int shrinking) {
+		Random rand = new Random(13 + svm_type + 10 * shrinking);
+		svm_problem prob = problem(rand, svm_type);
+		svm_parameter param = param(svm_type, shrinking);
+		svm_model[] path = svm.svm_train_path(prob, param, C);
+		assertEquals(C.length, path.length);
+		for (int c = 0; c < C.length; c++) {
+			svm_parameter single = (svm_parameter) param.clone();
+			single.C = C[c];
+			assertEquals(C[c], path[c].param.C, 0);
+			assert_same_model("C " + C[c] + " shrinking " + shrinking, svm.svm_train(prob, single), path[c], prob, rand);
+		}
+	}
+
+	@Test
+	public void cSvcPath() {
+		check_path(svm_parameter.C_SVC, 0);
+	}
+
+	@Test
+	public void cSvcPathWithShrinking() {
+		check_path(svm_parameter.C_SVC, 1);
+	}
+
+	@Test
+	public void epsilonSvrPath() {
+		check_path(svm_parameter.EPSILON_SVR, 0);
+	}
+
+	@Test
+	public void epsilonSvrPathWithShrinking() {
+		check_path(svm_parameter.EPSILON_SVR, 1);
+	}
+
+	/** Cross validation targets, folds drawn from equally seeded generators. */
+	private static double[][] cross_validation(svm_problem prob, svm_parameter param, boolean path) {
+		double[][] target = new double[C.length][prob.l];
+		if (path)
+			svm.svm_cross_validation(prob, param, C, 5, target, new Random(5));
+		else
+			for (int c = 0; c < C.length; c++) {
+				svm_parameter single = (svm_parameter) param.clone();
+				single.C = C[c];
+				svm.svm_cross_validation(prob, single, 5, target[c], new Random(5));
+			}
+		return target;
+	}
+
+	/**
+	 * Regression targets agree to the tolerance; labels of near ties may
+	 * go either way, but no more than one row in fifty.
+	 */
+	private static void assert_same_targets(String name, int svm_type, double[][] expected, double[][] actual) {
+		for (int c = 0; c < C.length; c++)
+			if (svm_type == svm_parameter.EPSILON_SVR)
+				Fixtures.assert_close(name + " C " + C[c], expected[c], actual[c], TOLERANCE);
+			else {
+				int differ = 0;
+				for (int i = 0; i < expected[c].length; i++)
+					if (expected[c][i] != actual[c][i])
+						differ++;
+				assertTrue(name + " C " + C[c] + ": " + differ + " labels differ", differ <= expected[c].length / 50);
+			}
+	}
+
+	@Test
+	public void crossValidationPath() {
+		for (int svm_type : new int[] { svm_parameter.C_SVC, svm_parameter.EPSILON_SVR }) {
+			svm_problem prob = problem(new Random(31 + svm_type), svm_type);
+			svm_parameter param = param(svm_type, 1);
+			assert_same_targets("path", svm_type, cross_validation(prob, param, false), cross_validation(prob, param, true));
+		}
+	}
+
+	@Test
+	public void alphaSeeding() {
+		for (int svm_type : new int[] { svm_parameter.C_SVC, svm_parameter.EPSILON_SVR }) {
+			svm_problem prob = problem(new Random(41 + svm_type), svm_type);
+			svm_parameter param = param(svm_type, 1);
+			svm_parameter seeded = (svm_parameter) param.clone();
+			seeded.alpha_seeding = 1;
+			assert_same_targets("-a 1", svm_type, cross_validation(prob, param, true), cross_validation(prob, seeded, true));
+		}
+	}
+
+	@Test
+	public void indexIndirection() {
+		for (int svm_type : new int[] { svm_parameter.C_SVC, svm_parameter.ONE_CLASS, svm_parameter.EPSILON_SVR }) {
+			Random rand = new Random(51 + svm_type);
+			svm_problem prob = problem(rand, svm_type);
+			svm_parameter param = param(svm_type, 1);
+			param.cache_size = 0.05;
+			svm_parameter indirect = (svm_parameter) param.clone();
+			indirect.index_indirection = 1;
+			assert_same_model("-x 1 svm_type " + svm_type, svm.svm_train(prob, param), svm.svm_train(prob, indirect), prob, rand);
+		}
+	}
+}
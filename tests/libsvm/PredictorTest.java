@@ -0,0 +1,259 @@
+package libsvm;
+
+import static org.junit.Assert.*;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+import org.junit.*;
+
+/**
+ * Predictions of svm_predictor against the kernel sums of the model, for
+ * every svm_type and kernel_type, each way the model may be laid out,
+ * with and without probability estimates, on one thread and on eight.
+ */
+public class PredictorTest {
+
+	private static final int DIM = 10;
+	private static final int ROWS = 203;
+
+	@BeforeClass
+	public static void quiet() {
+		Fixtures.quiet();
+	}
+
+	@Test
+	public void cSvc() {
+		check(svm_parameter.C_SVC);
+	}
+
+	@Test
+	public void nuSvc() {
+		check(svm_parameter.NU_SVC);
+	}
+
+	@Test
+	public void oneClass() {
+		check(svm_parameter.ONE_CLASS);
+	}
+
+	@Test
+	public void epsilonSvr() {
+		check(svm_parameter.EPSILON_SVR);
+	}
+
+	@Test
+	public void nuSvr() {
+		check(svm_parameter.NU_SVR);
+	}
+
+	/**
+	 * Predicts once with a new predictor on this thread and on pool
+	 * threads, and drops it.
+	 */
+	private static WeakReference<svm_predictor> use_and_drop(svm_model model, svm_node[][] queries) {
+		svm_predictor predictor = new svm_predictor(model);
+		predictor.predict(queries[0]);
+		predictor.predict(queries, new double[queries.length], null, null, 4);
+		return new WeakReference<svm_predictor>(predictor);
+	}
+
+	/** Buffers the predictor keeps per thread must not keep it reachable. */
+	@Test
+	public void droppedPredictorsAreCollected() throws InterruptedException {
+		Random rand = new Random(27);
+		svm_problem prob = Fixtures.problem(rand, 90, DIM, 0.9, 2);
+		svm_model model = svm.svm_train(prob, Fixtures.param(svm_parameter.C_SVC, svm_parameter.RBF, DIM));
+		svm_node[][] queries = new svm_node[ROWS][];
+		for (int i = 0; i < ROWS; i++)
+			queries[i] = Fixtures.row(rand, DIM, 0.9, false);
+		List<WeakReference<svm_predictor>> dropped = new ArrayList<WeakReference<svm_predictor>>();
+		for (int k = 0; k < 10; k++)
+			dropped.add(use_and_drop(model, queries));
+		for (int k = 0; k < 50; k++) {
+			System.gc();
+			Iterator<WeakReference<svm_predictor>> it = dropped.iterator();
+			while (it.hasNext())
+				if (it.next().get() == null)
+					it.remove();
+			if (dropped.isEmpty())
+				break;
+			Thread.sleep(20);
+		}
+		assertEquals("predictors still reachable", 0, dropped.size());
+	}
+
+	private static boolean classification(int svm_type) {
+		return svm_type == svm_parameter.C_SVC || svm_type == svm_parameter.NU_SVC;
+	}
+
+	/**
+	 * Every kernel over dense data of three classes and sparse data of
+	 * two, with -b 0 and, where supported, -b 1.
+	 */
+	private static void check(int svm_type) {
+		Random rand = new Random(21 + svm_type);
+		for (int probability = 0; probability <= (svm_type == svm_parameter.ONE_CLASS ? 0 : 1); probability++)
+			for (double density : new double[] { 0.9, 0.3 }) {
+				int nr_class = classification(svm_type) ? (density > 0.5 ? 3 : 2) : svm_type == svm_parameter.ONE_CLASS ? 2 : 0;
+				svm_problem prob = Fixtures.problem(rand, 90, DIM, density, nr_class);
+				svm_node[][] queries = new svm_node[ROWS][];
+				for (int i = 0; i < ROWS; i++)
+					queries[i] = Fixtures.row(rand, i % 3 == 0 ? DIM + 5 : DIM, density, false);
+				for (int kernel_type = svm_parameter.LINEAR; kernel_type <= svm_parameter.PRECOMPUTED; kernel_type++)
+					for (int degree = 2; degree <= (kernel_type == svm_parameter.POLY ? 3 : 2); degree++) {
+						svm_parameter param = Fixtures.param(svm_type, kernel_type, DIM);
+						param.degree = degree;
+						param.coef0 = kernel_type == svm_parameter.POLY ? 1 : 0;
+						param.probability = probability;
+						String name = "svm_type " + svm_type + " kernel_type " + kernel_type + " degree " + degree
+								+ " density " + density + " -b " + probability;
+						if (kernel_type == svm_parameter.PRECOMPUTED)
+							check_precomputed(name, prob, queries, param);
+						else
+							check_layouts(name, svm.svm_train(prob, param), queries);
+					}
+			}
+	}
+
+	/** The model as trained, with its kernel sums, and with merged sparse rows. */
+	private static void check_layouts(String name, svm_model model, svm_node[][] queries) {
+		check_model(name + " trained", model, queries);
+		model.w = null;
+		model.w2 = null;
+		model.w2_dim = 0;
+		model.w0 = null;
+		svm.svm_densify_model(model);
+		svm.svm_index_model(model);
+		check_model(name + (model.SV_dense != null ? " dense" : " indexed"), model, queries);
+		model.SV_dense = null;
+		model.SV_dim = 0;
+		svm.svm_index_model(model);
+		check_model(name + " indexed", model, queries);
+		model.feature_start = null;
+		model.posting_sv = null;
+		model.posting_value = null;
+		check_model(name + " merged", model, queries);
+	}
+
+	/** An RBF kernel given as precomputed rows. */
+	private static void check_precomputed(String name, svm_problem prob, svm_node[][] queries, svm_parameter param) {
+		svm_parameter rbf = Fixtures.param(param.svm_type, svm_parameter.RBF, DIM);
+		svm_problem kernel_prob = new svm_problem();
+		kernel_prob.l = prob.l;
+		kernel_prob.y = prob.y;
+		kernel_prob.x = Fixtures.precomputed(rbf, prob.x, prob.x);
+		svm_model model = svm.svm_train(kernel_prob, param);
+		check_model(name, model, Fixtures.precomputed(rbf, prob.x, queries));
+	}
+
+	private static void check_model(String name, svm_model model, svm_node[][] queries) {
+		svm_predictor predictor = new svm_predictor(model);
+		int nr_decision = predictor.get_nr_decision();
+		int nr_class = model.nr_class;
+		boolean probability = svm.svm_check_probability_model(model) != 0 && classification(model.param.svm_type);
+		int n = queries.length;
+
+		double[] dec_values = new double[nr_decision];
+		double[] prob_estimates = new double[nr_class];
+		double[][] expected_dec = new double[n][];
+		double[] expected_label = new double[n];
+		double[] expected_label_b = new double[n];
+		double[][] expected_prob = new double[n][];
+		for (int i = 0; i < n; i++) {
+			expected_dec[i] = Fixtures.decision_values(model, queries[i]);
+			expected_label[i] = label(model, expected_dec[i]);
+			String row = name + " row " + i;
+			double label = predictor.predict_values(queries[i], dec_values);
+			Fixtures.assert_close(row, expected_dec[i], dec_values, 1e-9);
+			assertEquals(row, expected_label[i], label, 1e-9 * Math.max(1, Math.abs(expected_label[i])));
+			assertEquals(row, label, predictor.predict(queries[i]), 0);
+			if (probability) {
+				expected_prob[i] = probability(model, expected_dec[i]);
+				expected_label_b[i] = model.label[argmax(expected_prob[i])];
+				assertEquals(row, expected_label_b[i], predictor.predict_probability(queries[i], prob_estimates), 0);
+				Fixtures.assert_close(row, expected_prob[i], prob_estimates, 1e-6);
+			}
+		}
+
+		for (boolean b : new boolean[] { false, true }) {
+			double[] labels_1 = new double[n];
+			double[] dec_1 = new double[n * nr_decision];
+			double[] prob_1 = b ? new double[n * nr_class] : null;
+			predictor.predict(queries, labels_1, dec_1, prob_1, 1);
+			for (int i = 0; i < n; i++) {
+				String row = name + " batch -b " + (b ? 1 : 0) + " row " + i;
+				Fixtures.assert_close(row, expected_dec[i],
+						Arrays.copyOfRange(dec_1, i * nr_decision, (i + 1) * nr_decision), 1e-9);
+				if (b && probability) {
+					assertEquals(row, expected_label_b[i], labels_1[i], 0);
+					Fixtures.assert_close(row, expected_prob[i],
+							Arrays.copyOfRange(prob_1, i * nr_class, (i + 1) * nr_class), 1e-6);
+				} else
+					assertEquals(row, expected_label[i], labels_1[i], 1e-9 * Math.max(1, Math.abs(expected_label[i])));
+			}
+
+			double[] labels_8 = new double[n];
+			double[] dec_8 = new double[n * nr_decision];
+			double[] prob_8 = b ? new double[n * nr_class] : null;
+			predictor.predict(queries, labels_8, dec_8, prob_8, 8);
+			assertArrayEquals(name + " 8 threads", labels_1, labels_8, 0);
+			assertArrayEquals(name + " 8 threads", dec_1, dec_8, 0);
+			if (b)
+				assertArrayEquals(name + " 8 threads", prob_1, prob_8, 0);
+		}
+	}
+
+	/** The label or value of decision values, by votes for classification. */
+	private static double label(svm_model model, double[] dec_values) {
+		switch (model.param.svm_type) {
+			case svm_parameter.ONE_CLASS:
+				return dec_values[0] > 0 ? 1 : -1;
+			case svm_parameter.EPSILON_SVR:
+			case svm_parameter.NU_SVR:
+				return dec_values[0];
+			default:
+				int[] vote = new int[model.nr_class];
+				int p = 0;
+				for (int i = 0; i < model.nr_class; i++)
+					for (int j = i + 1; j < model.nr_class; j++)
+						if (dec_values[p++] > 0)
+							vote[i]++;
+						else
+							vote[j]++;
+				int best = 0;
+				for (int i = 1; i < model.nr_class; i++)
+					if (vote[i] > vote[best])
+						best = i;
+				return model.label[best];
+		}
+	}
+
+	/** Pairwise sigmoids of the decision values, coupled over the classes. */
+	private static double[] probability(svm_model model, double[] dec_values) {
+		int k = model.nr_class;
+		double min_prob = 1e-7;
+		double[][] pairwise = new double[k][k];
+		int p = 0;
+		for (int i = 0; i < k; i++)
+			for (int j = i + 1; j < k; j++) {
+				double r = svm.sigmoid_predict(dec_values[p], model.probA[p], model.probB[p]);
+				pairwise[i][j] = Math.min(Math.max(r, min_prob), 1 - min_prob);
+				pairwise[j][i] = 1 - pairwise[i][j];
+				p++;
+			}
+		if (k == 2)
+			return new double[] { pairwise[0][1], pairwise[1][0] };
+		double[] prob_estimates = new double[k];
+		svm.multiclass_probability(k, pairwise, prob_estimates, new double[k][k], new double[k]);
+		return prob_estimates;
+	}
+
+	private static int argmax(double[] v) {
+		int best = 0;
+		for (int i = 1; i < v.length; i++)
+			if (v[i] > v[best])
+				best = i;
+		return best;
+	}
+}